@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.logging.LogRecord;
+
+/**
+ * An append-only sequence of records, stored in fixed-size segments that never
+ * move once allocated. Appends must be serialized by the caller, but reads
+ * need no locking: a record is published by the volatile write of the size
+ * that covers it, so any prefix of the log can be viewed without copying.
+ */
+final class AppendOnlyLog {
+
+  private static final int SEGMENT_SHIFT = 10;
+  private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+  private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+  private volatile LogRecord[][] segments = new LogRecord[1][];
+
+  /** The watermark: records below it are published. */
+  private volatile int size = 0;
+
+  /**
+   * Appends {@code record}; callers must not append concurrently.
+   */
+  void append(LogRecord record) {
+    int index = size;
+    int segment = index >>> SEGMENT_SHIFT;
+    LogRecord[][] current = segments;
+    if (segment == current.length) {
+      current = Arrays.copyOf(current, 2 * segment);
+      segments = current;
+    }
+    if (current[segment] == null) {
+      current[segment] = new LogRecord[SEGMENT_SIZE];
+    }
+    current[segment][index & SEGMENT_MASK] = record;
+    size = index + 1;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the record at {@code index}, which must be below a size
+   * previously read.
+   */
+  LogRecord get(int index) {
+    return segments[index >>> SEGMENT_SHIFT][index & SEGMENT_MASK];
+  }
+
+  /**
+   * Returns the records published so far, as a list that later appends do not
+   * affect.
+   */
+  List<LogRecord> view() {
+    return view(0, size);
+  }
+
+  /**
+   * Returns the records from {@code from} to {@code to}, which must not be
+   * above a size previously read, without copying them.
+   */
+  List<LogRecord> view(int from, int to) {
+    return new View(segments, from, to);
+  }
+
+  private static final class View extends AbstractList<LogRecord>
+      implements RandomAccess {
+
+    private final LogRecord[][] segments;
+    private final int from;
+    private final int to;
+
+    View(LogRecord[][] segments, int from, int to) {
+      this.segments = segments;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public LogRecord get(int index) {
+      if (index < 0 || index >= to - from) {
+        throw new IndexOutOfBoundsException(
+            "Index: " + index + ", size: " + (to - from));
+      }
+      int position = from + index;
+      return segments[position >>> SEGMENT_SHIFT][position & SEGMENT_MASK];
+    }
+
+    @Override
+    public int size() {
+      return to - from;
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.List;
+import java.util.logging.LogRecord;
+
+/**
+ * Keeps every record in an {@link AppendOnlyLog}, so that snapshots are views
+ * rather than copies. Clearing starts a new log, leaving earlier snapshots
+ * untouched.
+ */
+final class AppendOnlyLogRecordStore extends LogRecordStore {
+
+  private volatile AppendOnlyLog log = new AppendOnlyLog();
+
+  @Override
+  void add(LogRecord record) {
+    AppendOnlyLog current = log;
+    synchronized (current) {
+      current.append(record);
+    }
+  }
+
+  @Override
+  void clear() {
+    log = new AppendOnlyLog();
+  }
+
+  @Override
+  List<LogRecord> snapshot() {
+    return log.view();
+  }
+
+  @Override
+  void moveToEnd(LogRecordCursor cursor) {
+    AppendOnlyLog current = log;
+    cursor.generation = current;
+    cursor.position = current.size();
+  }
+
+  @Override
+  List<LogRecord> advance(LogRecordCursor cursor) {
+    return advance(log, cursor);
+  }
+
+  /**
+   * Returns the records of {@code log} that {@code cursor} has not returned
+   * yet, all of them if it was cleared since, and moves {@code cursor} past
+   * them.
+   */
+  static List<LogRecord> advance(AppendOnlyLog log, LogRecordCursor cursor) {
+    int end = log.size();
+    int start = (cursor.generation == log) ? (int) cursor.position : 0;
+    cursor.generation = log;
+    cursor.position = end;
+    return log.view(start, end);
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.testing;
+
+/**
+ * A {@link TearDown} whose work does not affect the tests that follow it, e.g.
+ * deleting large temporary directories. When its {@link TearDownStack} has an
+ * {@link AsyncTearDownRunner}, it is handed to that runner and the stack moves
+ * on immediately; failures are reported when the runner is
+ * {@link AsyncTearDownRunner#awaitCompletion awaited}.
+ *
+ * <p>Since nothing waits for it to finish, an {@link AsyncTearDown} should not
+ * be a dependency of other {@link TearDown}s.
+ *
+ * <p>Without an {@link AsyncTearDownRunner}, it runs like any other
+ * {@link TearDown}.
+ */
+public interface AsyncTearDown extends TearDown {}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.testing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link AsyncTearDown}s in the background, so that slow clean-up
+ * overlaps with the tests that follow. {@link #awaitCompletion()} is the
+ * barrier, typically invoked at the end of a test class or suite, that waits
+ * for all outstanding work and reports what failed.
+ *
+ * @see TearDownStack#setAsyncTearDownRunner
+ */
+public final class AsyncTearDownRunner {
+
+  private final Object lock = new Object();
+  private Executor executor;
+  private int outstanding = 0;
+  private List<Throwable> exceptions = new ArrayList<Throwable>();
+
+  /**
+   * Creates a runner that uses a single daemon thread, started on the first
+   * {@link #submit} and stopped when it has been idle for a while.
+   */
+  public AsyncTearDownRunner() {}
+
+  /**
+   * Creates a runner that runs the submitted {@link TearDown}s on
+   * {@code executor}.
+   */
+  public AsyncTearDownRunner(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Schedules {@code tearDown} to run in the background, and returns
+   * immediately; if the executor rejects it, runs it in the calling thread
+   * instead.
+   */
+  public void submit(final TearDown tearDown) {
+    Executor executor;
+    synchronized (lock) {
+      if (this.executor == null) {
+        this.executor = newDefaultExecutor();
+      }
+      executor = this.executor;
+      outstanding++;
+    }
+    Runnable task = new Runnable() {
+      public void run() {
+        Throwable failure = null;
+        try {
+          tearDown.tearDown();
+        } catch (Throwable t) {
+          failure = t;
+        }
+        synchronized (lock) {
+          if (failure != null) {
+            exceptions.add(failure);
+          }
+          outstanding--;
+          lock.notifyAll();
+        }
+      }
+    };
+    try {
+      executor.execute(task);
+    } catch (RuntimeException e) {
+      // rejected, e.g. by a shut-down executor: run it here rather than leave
+      // it outstanding forever
+      task.run();
+    }
+  }
+
+  /**
+   * Waits for every submitted {@link TearDown} to complete.
+   *
+   * @throws RuntimeException as per {@link ClusterException#create}, if any
+   *     of them failed since the last call
+   */
+  public void awaitCompletion() {
+    List<Throwable> failures;
+    boolean interrupted = false;
+    synchronized (lock) {
+      while (outstanding > 0) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          // the barrier must hold, or failures would go unreported
+          interrupted = true;
+        }
+      }
+      failures = exceptions;
+      exceptions = new ArrayList<Throwable>();
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (failures.size() > 0) {
+      throw ClusterException.create(failures);
+    }
+  }
+
+  private static Executor newDefaultExecutor() {
+    ThreadPoolExecutor result = new ThreadPoolExecutor(
+        1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "AsyncTearDownRunner");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    result.allowCoreThreadTimeOut(true);
+    return result;
+  }
+}
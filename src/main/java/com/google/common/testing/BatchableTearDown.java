@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+/**
+ * A {@link TearDown} that can be torn down along with others of its kind in a
+ * single operation, e.g. deleting many temporary files with one recursive
+ * delete, or dropping many tables with one statement:
+ *
+ * <pre>
+ * class TempFile implements BatchableTearDown&lt;TempFile&gt; {
+ *   static final TearDownBatch&lt;TempFile&gt; DELETE_ALL = ...;
+ *
+ *   public TearDownBatch&lt;TempFile&gt; getBatch() {
+ *     return DELETE_ALL;
+ *   }
+ *
+ *   public void tearDown() {
+ *     // deletes this file alone
+ *   }
+ * }
+ * </pre>
+ *
+ * <p>When a {@link TearDownStack} holds several {@link BatchableTearDown}s
+ * registered through {@link TearDownStack#addTearDown(TearDown)} whose batches
+ * are equal, it hands them all to that batch at once, in stack order, instead
+ * of calling their own {@link #tearDown()}. The batch runs where the earliest
+ * registered of them would have run, so that none of them is torn down before
+ * the {@link TearDown}s registered after it.
+ *
+ * @param <T> the type of the {@link TearDown}s that go in the same batch
+ */
+public interface BatchableTearDown<T extends BatchableTearDown<T>>
+    extends TearDown {
+
+  /**
+   * Returns the operation that tears this down along with the other
+   * {@link TearDown}s returning an equal one, or {@code null} if this must be
+   * torn down on its own.
+   */
+  TearDownBatch<T> getBatch();
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Decides which records a {@link TestLogHandler} captures at all. Immutable:
+ * changing the filter replaces it.
+ */
+final class CaptureFilter {
+
+  static final CaptureFilter ACCEPT_ALL =
+      new CaptureFilter(Level.ALL.intValue(), null, 1.0);
+
+  private final int minimumLevel;
+  /** {@code null} for every logger. */
+  private final LoggerNameTrie loggers;
+  private final double samplingRate;
+
+  private CaptureFilter(
+      int minimumLevel, LoggerNameTrie loggers, double samplingRate) {
+    this.minimumLevel = minimumLevel;
+    this.loggers = loggers;
+    this.samplingRate = samplingRate;
+  }
+
+  CaptureFilter withMinimumLevel(Level level) {
+    return new CaptureFilter(level.intValue(), loggers, samplingRate);
+  }
+
+  CaptureFilter withLoggers(LoggerNameTrie loggers) {
+    return new CaptureFilter(minimumLevel, loggers, samplingRate);
+  }
+
+  CaptureFilter withSamplingRate(double samplingRate) {
+    return new CaptureFilter(minimumLevel, loggers, samplingRate);
+  }
+
+  boolean isAcceptAll() {
+    return minimumLevel == Level.ALL.intValue() && loggers == null
+        && samplingRate >= 1.0;
+  }
+
+  /**
+   * Returns whether to capture {@code record}; allocates nothing.
+   */
+  boolean accepts(LogRecord record) {
+    return record.getLevel().intValue() >= minimumLevel
+        && (loggers == null || loggers.matches(record.getLoggerName()))
+        && (samplingRate >= 1.0
+            || ThreadLocalRandom.current().nextDouble() < samplingRate);
+  }
+}
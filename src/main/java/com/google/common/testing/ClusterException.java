@@ -19,8 +19,10 @@ package com.google.common.testing;
 // Repackages from the zigva project
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 /**
  * An {@link ClusterException} is data structure that allows for some code to
@@ -54,32 +56,80 @@ import java.util.Collections;
  * }
  * </pre>
  * 
- * <p>See semantic details at {@link #create(Collection)}.
+ * <p>See semantic details at {@link #create(Collection)}. Code that fails
+ * often, and owns its list of exceptions, should prefer
+ * {@link #createLightweight}.
  * 
  * @author Luiz-Otavio Zorzella
  */
 final class ClusterException extends RuntimeException {
 
   public final Collection<? extends Throwable> exceptions;
-  
+
+  /**
+   * How many times each of the {@link #exceptions} occurred, or {@code null}
+   * if each occurred once.
+   */
+  private final int[] occurrences;
+
+  /** How many exceptions were thrown, kept or not. */
+  private final int total;
+
   private ClusterException(Collection<? extends Throwable> exceptions) {
-    super(String.format(
-        "%d exceptions were thrown. The first exception is listed as a cause.", 
-        exceptions.size()), exceptions.iterator().next());
-    ArrayList<Throwable> temp = new ArrayList<Throwable>();
-    temp.addAll(exceptions);
-    this.exceptions = Collections.unmodifiableCollection(temp);
+    super(null, exceptions.iterator().next());
+    this.exceptions = Collections.unmodifiableCollection(
+        new ArrayList<Throwable>(exceptions));
+    this.occurrences = null;
+    this.total = exceptions.size();
   }
 
   /**
-   * @see #create(Collection)
+   * Shares {@code exceptions} rather than copying it, skips filling in its own
+   * stack trace, and lists every exception but the cause as suppressed.
    */
-  public static RuntimeException create(Throwable... exceptions) {
-    ArrayList<Throwable> temp = new ArrayList<Throwable>();
+  private ClusterException(
+      List<? extends Throwable> exceptions, int[] occurrences, int total) {
+    super(null, exceptions.get(0), true, false);
+    this.exceptions = Collections.unmodifiableList(exceptions);
+    this.occurrences = occurrences;
+    this.total = total;
+    for (int i = 1; i < exceptions.size(); i++) {
+      Throwable exception = exceptions.get(i);
+      if (exception != null && exception != getCause()) {
+        addSuppressed(exception);
+      }
+    }
+  }
+
+  @Override
+  public String getMessage() {
+    if (occurrences == null) {
+      return String.format(
+          "%d exceptions were thrown. The first exception is listed as a cause.",
+          total);
+    }
+    StringBuilder message = new StringBuilder(String.format(
+        "%d exceptions were thrown, grouped by stack trace below. The first "
+        + "exception is listed as a cause, one of each other group as "
+        + "suppressed.", total));
+    int kept = 0;
+    int index = 0;
     for (Throwable exception : exceptions) {
-      temp.add(exception);
+      kept += occurrences[index];
+      message.append(String.format(
+          "%n  %d x %s", occurrences[index++], exception));
+    }
+    if (kept < total) {
+      message.append(String.format("%n  %d more not retained", total - kept));
     }
-    return create(temp);
+    return message.toString();
+  }
+
+  /**
+   * @see #create(Collection)
+   */
+  public static RuntimeException create(Throwable... exceptions) {
+    return create(Arrays.asList(exceptions));
   }
   
   /**
@@ -118,4 +168,36 @@ final class ClusterException extends RuntimeException {
     }
     return new ClusterException(exceptions);
   }
+
+  /**
+   * Like {@link #create(Collection)}, but cheaper when many exceptions get
+   * thrown: the returned {@link ClusterException} keeps {@code exceptions}
+   * itself, which must not be modified afterwards, has no stack trace of its
+   * own, and formats its message only when asked. Every exception but the
+   * first, which is the cause, is {@linkplain Throwable#addSuppressed
+   * suppressed}, so that they all show up when it is printed.
+   *
+   * @throws NullPointerException if {@code exceptions} is null
+   * @throws IllegalArgumentException if {@code exceptions} is empty
+   */
+  public static RuntimeException createLightweight(
+      List<? extends Throwable> exceptions) {
+    if (exceptions.size() < 2) {
+      return create(exceptions);
+    }
+    return new ClusterException(exceptions, null, exceptions.size());
+  }
+
+  /**
+   * Like {@link #createLightweight}, for exceptions that were grouped by
+   * {@link ExceptionAggregator}: {@code exceptions} holds one exception of
+   * each group, and {@code occurrences} the size of each group.
+   *
+   * @param total how many exceptions were thrown, including those that were
+   *     not retained in any group
+   */
+  static ClusterException createDeduplicated(
+      List<? extends Throwable> exceptions, int[] occurrences, int total) {
+    return new ClusterException(exceptions, occurrences, total);
+  }
 }
\ No newline at end of file
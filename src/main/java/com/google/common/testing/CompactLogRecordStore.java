@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import com.google.common.testing.TestLogHandler.ThrownSummary;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Keeps only what tests usually assert on, one column per field: the level,
+ * time, logger name, thread, formatted message and class of the thrown
+ * exception of each record. Logger names and levels are stored once each.
+ * Queries run on the columns; {@link LogRecord}s are only rebuilt for the
+ * records returned, at most once per list returned.
+ */
+final class CompactLogRecordStore extends LogRecordStore {
+
+  private final Formatter formatter = new SimpleFormatter();
+
+  /** Replaced when cleared; appended to while holding this. */
+  private volatile Columns columns = new Columns();
+
+  // guarded by this
+  private final Map<String, Integer> loggerIds = new HashMap<String, Integer>();
+  private String[] loggerNames = new String[8];
+  private final Map<Level, Integer> levelIds = new HashMap<Level, Integer>();
+  private Level[] levels = new Level[8];
+
+  @Override
+  synchronized void add(LogRecord record) {
+    Throwable thrown = record.getThrown();
+    columns.append(levelId(record.getLevel()), record.getMillis(),
+        loggerId(record.getLoggerName()), record.getThreadID(),
+        formatter.formatMessage(record),
+        thrown == null ? null : thrown.getClass());
+  }
+
+  private int loggerId(String loggerName) {
+    Integer id = loggerIds.get(loggerName);
+    if (id == null) {
+      id = loggerIds.size();
+      if (id == loggerNames.length) {
+        loggerNames = Arrays.copyOf(loggerNames, 2 * id);
+      }
+      loggerNames[id] = loggerName;
+      loggerIds.put(loggerName, id);
+    }
+    return id;
+  }
+
+  private int levelId(Level level) {
+    Integer id = levelIds.get(level);
+    if (id == null) {
+      id = levelIds.size();
+      if (id == levels.length) {
+        levels = Arrays.copyOf(levels, 2 * id);
+      }
+      levels[id] = level;
+      levelIds.put(level, id);
+    }
+    return id;
+  }
+
+  @Override
+  synchronized void clear() {
+    columns = new Columns();
+  }
+
+  @Override
+  synchronized List<LogRecord> snapshot() {
+    return view(columns, 0, columns.size);
+  }
+
+  @Override
+  int count(LogRecordQuery query) {
+    View view = (View) snapshot();
+    int count = 0;
+    for (int i = 0; i < view.size(); i++) {
+      if (view.matches(i, query)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  List<LogRecord> select(LogRecordQuery query, int limit) {
+    View view = (View) snapshot();
+    List<LogRecord> result = new ArrayList<LogRecord>();
+    for (int i = 0; i < view.size() && result.size() < limit; i++) {
+      if (view.matches(i, query)) {
+        result.add(view.get(i));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  synchronized void moveToEnd(LogRecordCursor cursor) {
+    cursor.generation = columns;
+    cursor.position = columns.size;
+  }
+
+  @Override
+  synchronized List<LogRecord> advance(LogRecordCursor cursor) {
+    int end = columns.size;
+    int start = (cursor.generation == columns) ? (int) cursor.position : 0;
+    cursor.generation = columns;
+    cursor.position = end;
+    return view(columns, start, end);
+  }
+
+  /**
+   * Must be called while holding this, so that the view sees everything
+   * appended so far.
+   */
+  private View view(Columns columns, int from, int to) {
+    return new View(columns.levels, columns.millis, columns.loggers,
+        columns.threads, columns.messages, columns.thrown,
+        loggerNames, levels, from, to);
+  }
+
+  /** The columns, grown by copying; only appended to while holding the store. */
+  private static final class Columns {
+
+    int size = 0;
+    int[] levels = new int[16];
+    long[] millis = new long[16];
+    int[] loggers = new int[16];
+    int[] threads = new int[16];
+    String[] messages = new String[16];
+    Class<?>[] thrown = new Class<?>[16];
+
+    void append(int level, long time, int logger, int thread, String message,
+        Class<?> thrownClass) {
+      if (size == levels.length) {
+        int capacity = 2 * size;
+        levels = Arrays.copyOf(levels, capacity);
+        millis = Arrays.copyOf(millis, capacity);
+        loggers = Arrays.copyOf(loggers, capacity);
+        threads = Arrays.copyOf(threads, capacity);
+        messages = Arrays.copyOf(messages, capacity);
+        thrown = Arrays.copyOf(thrown, capacity);
+      }
+      levels[size] = level;
+      millis[size] = time;
+      loggers[size] = logger;
+      threads[size] = thread;
+      messages[size] = message;
+      thrown[size] = thrownClass;
+      size++;
+    }
+  }
+
+  /**
+   * Rebuilds records from a prefix of the columns, each at most once. The
+   * arrays it holds, including the logger name and level tables, are never
+   * written to below that prefix's end again.
+   */
+  private static final class View extends AbstractList<LogRecord>
+      implements RandomAccess {
+
+    private final int[] levels;
+    private final long[] millis;
+    private final int[] loggers;
+    private final int[] threads;
+    private final String[] messages;
+    private final Class<?>[] thrown;
+    private final String[] loggerNames;
+    private final Level[] levelsById;
+    private final int from;
+    private final int to;
+
+    /** Allocated on first read. */
+    private volatile AtomicReferenceArray<LogRecord> rebuilt;
+
+    View(int[] levels, long[] millis, int[] loggers, int[] threads,
+        String[] messages, Class<?>[] thrown, String[] loggerNames,
+        Level[] levelsById, int from, int to) {
+      this.levels = levels;
+      this.millis = millis;
+      this.loggers = loggers;
+      this.threads = threads;
+      this.messages = messages;
+      this.thrown = thrown;
+      this.loggerNames = loggerNames;
+      this.levelsById = levelsById;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public LogRecord get(int index) {
+      if (index < 0 || index >= to - from) {
+        throw new IndexOutOfBoundsException(
+            "Index: " + index + ", size: " + (to - from));
+      }
+      AtomicReferenceArray<LogRecord> rebuilt = this.rebuilt;
+      if (rebuilt == null) {
+        rebuilt = new AtomicReferenceArray<LogRecord>(to - from);
+        this.rebuilt = rebuilt;
+      }
+      LogRecord result = rebuilt.get(index);
+      if (result == null) {
+        rebuilt.compareAndSet(index, null, rebuild(from + index));
+        result = rebuilt.get(index);
+      }
+      return result;
+    }
+
+    boolean matches(int index, LogRecordQuery query) {
+      int position = from + index;
+      return query.matches(levelsById[levels[position]],
+          loggerNames[loggers[position]], threads[position],
+          messages[position]);
+    }
+
+    private LogRecord rebuild(int position) {
+      LogRecord result = new LogRecord(
+          levelsById[levels[position]], messages[position]);
+      result.setMillis(millis[position]);
+      result.setLoggerName(loggerNames[loggers[position]]);
+      result.setThreadID(threads[position]);
+      if (thrown[position] != null) {
+        result.setThrown(new ThrownSummary(thrown[position]));
+      }
+      return result;
+    }
+
+    @Override
+    public int size() {
+      return to - from;
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Keeps no records, only how many were logged by each logger at each level,
+ * in {@link StripedCounter}s. Like {@link NullLogRecordStore}, it returns no
+ * record from any call; only counts by logger and level are answered.
+ * Counting a record of a standard level allocates nothing once its logger has
+ * been seen.
+ */
+final class CountingLogRecordStore extends LogRecordStore {
+
+  private static final Level[] STANDARD_LEVELS = {
+      Level.OFF, Level.SEVERE, Level.WARNING, Level.INFO, Level.CONFIG,
+      Level.FINE, Level.FINER, Level.FINEST, Level.ALL};
+
+  /** Replaced when cleared. */
+  private volatile Counts counts = new Counts();
+
+  @Override
+  void add(LogRecord record) {
+    counts.forLogger(record.getLoggerName()).forLevel(record.getLevel())
+        .increment();
+  }
+
+  @Override
+  void clear() {
+    counts = new Counts();
+  }
+
+  @Override
+  List<LogRecord> snapshot() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  void moveToEnd(LogRecordCursor cursor) {}
+
+  @Override
+  List<LogRecord> advance(LogRecordCursor cursor) {
+    return Collections.emptyList();
+  }
+
+  @Override
+  int count(LogRecordQuery query) {
+    if (query.byThread() || query.pattern() != null) {
+      throw new UnsupportedOperationException(
+          "A counting TestLogHandler only counts by logger and level");
+    }
+    Counts current = counts;
+    long sum = 0;
+    if (current.nullLogger != null && query.matchesLogger(null)) {
+      sum += current.nullLogger.sum(query.minimumLevel());
+    }
+    for (Map.Entry<String, LoggerCounts> entry : current.loggers.entrySet()) {
+      if (query.matchesLogger(entry.getKey())) {
+        sum += entry.getValue().sum(query.minimumLevel());
+      }
+    }
+    return (int) Math.min(sum, Integer.MAX_VALUE);
+  }
+
+  @Override
+  List<LogRecord> select(LogRecordQuery query, int limit) {
+    return Collections.emptyList();
+  }
+
+  @Override
+  long count(String loggerName, Level level) {
+    Counts current = counts;
+    LoggerCounts loggerCounts = (loggerName == null)
+        ? current.nullLogger
+        : current.loggers.get(loggerName);
+    return (loggerCounts == null) ? 0 : loggerCounts.get(level);
+  }
+
+  private static int standardIndex(Level level) {
+    for (int i = 0; i < STANDARD_LEVELS.length; i++) {
+      if (STANDARD_LEVELS[i] == level) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static final class Counts {
+
+    final ConcurrentMap<String, LoggerCounts> loggers =
+        new ConcurrentHashMap<String, LoggerCounts>();
+
+    /** For records without a logger name, which the map can't hold. */
+    volatile LoggerCounts nullLogger;
+
+    LoggerCounts forLogger(String loggerName) {
+      if (loggerName == null) {
+        synchronized (this) {
+          if (nullLogger == null) {
+            nullLogger = new LoggerCounts();
+          }
+          return nullLogger;
+        }
+      }
+      LoggerCounts result = loggers.get(loggerName);
+      if (result == null) {
+        LoggerCounts created = new LoggerCounts();
+        result = loggers.putIfAbsent(loggerName, created);
+        if (result == null) {
+          result = created;
+        }
+      }
+      return result;
+    }
+  }
+
+  private static final class LoggerCounts {
+
+    final AtomicReferenceArray<StripedCounter> standard =
+        new AtomicReferenceArray<StripedCounter>(STANDARD_LEVELS.length);
+
+    /** Keyed by {@link Level#intValue()}, for custom levels. */
+    final ConcurrentMap<Integer, StripedCounter> custom =
+        new ConcurrentHashMap<Integer, StripedCounter>();
+
+    StripedCounter forLevel(Level level) {
+      int index = standardIndex(level);
+      if (index >= 0) {
+        StripedCounter result = standard.get(index);
+        if (result == null) {
+          standard.compareAndSet(index, null, new StripedCounter());
+          result = standard.get(index);
+        }
+        return result;
+      }
+      StripedCounter result = custom.get(level.intValue());
+      if (result == null) {
+        StripedCounter created = new StripedCounter();
+        result = custom.putIfAbsent(level.intValue(), created);
+        if (result == null) {
+          result = created;
+        }
+      }
+      return result;
+    }
+
+    long get(Level level) {
+      int index = standardIndex(level);
+      StripedCounter counter = (index >= 0)
+          ? standard.get(index)
+          : custom.get(level.intValue());
+      return (counter == null) ? 0 : counter.sum();
+    }
+
+    /**
+     * Returns how many records were counted at {@code minimumLevel} or
+     * above, or at any level if it is {@code null}.
+     */
+    long sum(Level minimumLevel) {
+      int minimum = (minimumLevel == null)
+          ? Integer.MIN_VALUE
+          : minimumLevel.intValue();
+      long sum = 0;
+      for (int i = 0; i < STANDARD_LEVELS.length; i++) {
+        StripedCounter counter = standard.get(i);
+        if (counter != null && STANDARD_LEVELS[i].intValue() >= minimum) {
+          sum += counter.sum();
+        }
+      }
+      for (Map.Entry<Integer, StripedCounter> entry : custom.entrySet()) {
+        if (entry.getKey() >= minimum) {
+          sum += entry.getValue().sum();
+        }
+      }
+      return sum;
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects exceptions on their way into a {@link ClusterException}.
+ *
+ * <p>With a maximum number of distinct exceptions, exceptions that share an
+ * {@link ExceptionFingerprint} are kept only once, along with how many times
+ * they occurred, and exceptions beyond that maximum are only counted; what is
+ * retained does not grow with the number of exceptions. Otherwise every
+ * exception is kept, and reported as per {@link ClusterException#create}, or
+ * {@link ClusterException#createLightweight} if asked to.
+ */
+final class ExceptionAggregator {
+
+  /** Zero if every exception is kept. */
+  private final int maxDistinct;
+  private final boolean lightweight;
+
+  /** The exceptions kept, in the order they were first added. */
+  private final List<Throwable> exceptions = new ArrayList<Throwable>();
+
+  /** {@code null} if every exception is kept. */
+  private final Map<ExceptionFingerprint, Integer> indices;
+  private int[] occurrences;
+  private int total = 0;
+
+  /**
+   * @param maxDistinct how many distinct exceptions to keep, or zero to keep
+   *     every exception
+   * @param lightweight whether to report every exception kept through
+   *     {@link ClusterException#createLightweight}
+   */
+  ExceptionAggregator(int maxDistinct, boolean lightweight) {
+    this.maxDistinct = maxDistinct;
+    this.lightweight = lightweight;
+    if (maxDistinct > 0) {
+      this.indices = new HashMap<ExceptionFingerprint, Integer>();
+      this.occurrences = new int[Math.min(maxDistinct, 8)];
+    } else {
+      this.indices = null;
+    }
+  }
+
+  void add(Throwable exception) {
+    total++;
+    if (indices == null) {
+      exceptions.add(exception);
+      return;
+    }
+    ExceptionFingerprint fingerprint = new ExceptionFingerprint(exception);
+    Integer index = indices.get(fingerprint);
+    if (index != null) {
+      occurrences[index]++;
+    } else if (exceptions.size() < maxDistinct) {
+      int newIndex = exceptions.size();
+      if (newIndex == occurrences.length) {
+        occurrences = Arrays.copyOf(
+            occurrences, Math.min(2 * newIndex, maxDistinct));
+      }
+      occurrences[newIndex] = 1;
+      indices.put(fingerprint, newIndex);
+      exceptions.add(exception);
+    }
+  }
+
+  /**
+   * Returns the exception to throw for everything added.
+   *
+   * @throws IllegalArgumentException if nothing was added
+   */
+  RuntimeException toException() {
+    if (indices != null && total > 1) {
+      return ClusterException.createDeduplicated(
+          exceptions, Arrays.copyOf(occurrences, exceptions.size()), total);
+    }
+    return lightweight
+        ? ClusterException.createLightweight(exceptions)
+        : ClusterException.create(exceptions);
+  }
+}
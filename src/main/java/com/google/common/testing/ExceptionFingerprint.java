@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.Arrays;
+
+/**
+ * A cheap identity for exceptions thrown the same way: their class and
+ * innermost stack frames, regardless of their message.
+ */
+final class ExceptionFingerprint {
+
+  /** How many of the innermost stack frames make up a fingerprint. */
+  private static final int DEPTH = 8;
+
+  private final Class<?> type;
+  private final StackTraceElement[] frames;
+  private final int hashCode;
+
+  ExceptionFingerprint(Throwable exception) {
+    StackTraceElement[] trace = exception.getStackTrace();
+    this.type = exception.getClass();
+    this.frames = (trace.length > DEPTH) ? Arrays.copyOf(trace, DEPTH) : trace;
+    this.hashCode = 31 * type.hashCode() + Arrays.hashCode(frames);
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (!(object instanceof ExceptionFingerprint)) {
+      return false;
+    }
+    ExceptionFingerprint that = (ExceptionFingerprint) object;
+    return hashCode == that.hashCode
+        && type == that.type
+        && Arrays.equals(frames, that.frames);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.testing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A pool of fixtures that are expensive to create but cheap to reset, e.g. an
+ * embedded database that can be truncated. A test {@link #borrow borrows} a
+ * fixture; when the test is torn down, the fixture is reset and returned to the
+ * pool rather than destroyed:
+ *
+ * <pre>
+ * static final FixturePool&lt;Database&gt; databases =
+ *     new FixturePool&lt;Database&gt;(new DatabaseFactory(), 4);
+ *
+ * {@code @Test}
+ * public void query() throws Exception {
+ *   Database database = databases.borrow(this);
+ *   //.. the rest of the test
+ * }
+ * </pre>
+ *
+ * <p>Fixtures are destroyed when their reset fails, and otherwise when the
+ * pool is torn down: at JVM exit by default (see {@link JvmTearDownAccepter}),
+ * or by whichever {@link TearDownAccepter} the pool was created with.
+ *
+ * <p>A bounded pool never holds more than its maximum number of fixtures at
+ * once; {@link #borrow} blocks until one is available. Each fixture is only
+ * ever lent to one test at a time, so tests running in parallel threads each
+ * get their own.
+ *
+ * @param <T> the type of the fixtures
+ */
+public final class FixturePool<T> {
+
+  /**
+   * Creates, resets and destroys the fixtures of a {@link FixturePool}.
+   */
+  public interface Factory<T> {
+
+    T create() throws Exception;
+
+    /**
+     * Brings {@code fixture} back to the state of a newly created one. If this
+     * throws, the fixture is destroyed instead of being returned to the pool.
+     */
+    void reset(T fixture) throws Exception;
+
+    void destroy(T fixture) throws Exception;
+  }
+
+  private final Factory<T> factory;
+  /** {@code null} if the pool is unbounded. */
+  private final Semaphore permits;
+  /** Guards {@link #idle}, and the writes to {@link #closed}. */
+  private final Object lock = new Object();
+  private final Queue<T> idle = new ArrayDeque<T>();
+  private volatile boolean closed = false;
+
+  /**
+   * Creates an unbounded pool, whose fixtures are destroyed at JVM exit.
+   */
+  public FixturePool(Factory<T> factory) {
+    this(factory, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Creates a pool of at most {@code maxSize} fixtures, destroyed at JVM exit.
+   */
+  public FixturePool(Factory<T> factory, int maxSize) {
+    this(factory, maxSize, JvmTearDownAccepter.getInstance());
+  }
+
+  /**
+   * Creates a pool of at most {@code maxSize} fixtures, destroyed when
+   * {@code poolScope} is torn down.
+   */
+  public FixturePool(Factory<T> factory, int maxSize,
+      TearDownAccepter poolScope) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+    }
+    this.factory = factory;
+    this.permits = (maxSize == Integer.MAX_VALUE)
+        ? null : new Semaphore(maxSize, true);
+    poolScope.addTearDown(new TearDown() {
+      public void tearDown() {
+        close();
+      }
+    });
+  }
+
+  /**
+   * Lends a fixture until {@code accepter} is torn down, creating one if none
+   * is idle. Blocks while a bounded pool has all of its fixtures lent.
+   *
+   * @throws IllegalStateException if the pool has been torn down
+   */
+  public T borrow(TearDownAccepter accepter) throws Exception {
+    checkNotClosed();
+    if (permits != null) {
+      permits.acquire();
+    }
+    final T fixture;
+    try {
+      T pooled;
+      synchronized (lock) {
+        // the pool may have been torn down while we were blocked
+        checkNotClosed();
+        pooled = idle.poll();
+      }
+      fixture = (pooled != null) ? pooled : factory.create();
+    } catch (Exception e) {
+      release();
+      throw e;
+    } catch (Error e) {
+      release();
+      throw e;
+    }
+    try {
+      accepter.addTearDown(new TearDown() {
+        public void tearDown() throws Exception {
+          giveBack(fixture);
+        }
+      });
+    } catch (RuntimeException e) {
+      takeBackUnused(fixture, e);
+      throw e;
+    } catch (Error e) {
+      takeBackUnused(fixture, e);
+      throw e;
+    }
+    return fixture;
+  }
+
+  /**
+   * Takes back a fixture that could not be lent after all, without resetting
+   * it since it was never used.
+   */
+  private void takeBackUnused(T fixture, Throwable failure) {
+    try {
+      keepOrDestroy(fixture);
+    } catch (Throwable t) {
+      failure.addSuppressed(t);
+    } finally {
+      release();
+    }
+  }
+
+  private void giveBack(T fixture) throws Exception {
+    try {
+      try {
+        factory.reset(fixture);
+      } catch (Exception e) {
+        destroyAfterFailedReset(fixture, e);
+        throw e;
+      } catch (Error e) {
+        destroyAfterFailedReset(fixture, e);
+        throw e;
+      }
+      keepOrDestroy(fixture);
+    } finally {
+      release();
+    }
+  }
+
+  /**
+   * Makes {@code fixture} idle, or destroys it if the pool has been torn down.
+   */
+  private void keepOrDestroy(T fixture) throws Exception {
+    synchronized (lock) {
+      if (!closed) {
+        idle.add(fixture);
+        return;
+      }
+    }
+    factory.destroy(fixture);
+  }
+
+  private void destroyAfterFailedReset(T fixture, Throwable resetFailure) {
+    try {
+      factory.destroy(fixture);
+    } catch (Throwable t) {
+      resetFailure.addSuppressed(t);
+    }
+  }
+
+  /**
+   * Destroys the idle fixtures; the ones still lent are destroyed as they are
+   * returned.
+   */
+  private void close() {
+    List<T> fixtures;
+    synchronized (lock) {
+      closed = true;
+      fixtures = new ArrayList<T>(idle);
+      idle.clear();
+    }
+    List<Throwable> exceptions = new ArrayList<Throwable>();
+    for (T fixture : fixtures) {
+      try {
+        factory.destroy(fixture);
+      } catch (Throwable t) {
+        exceptions.add(t);
+      }
+    }
+    if (exceptions.size() > 0) {
+      throw ClusterException.create(exceptions);
+    }
+  }
+
+  private void checkNotClosed() {
+    if (closed) {
+      throw new IllegalStateException("This pool has been torn down");
+    }
+  }
+
+  private void release() {
+    if (permits != null) {
+      permits.release();
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Keeps every record, along with the positions of the records of each level,
+ * logger and thread, so that a {@link LogRecordQuery} only visits the records
+ * it may select.
+ */
+final class IndexedLogRecordStore extends LogRecordStore {
+
+  /** Replaced when cleared; appended to while holding this. */
+  private volatile AppendOnlyLog records = new AppendOnlyLog();
+
+  // all guarded by this
+  private final TreeMap<Integer, Positions> byLevel =
+      new TreeMap<Integer, Positions>();
+  private final Map<String, Positions> byLogger =
+      new HashMap<String, Positions>();
+  private final Map<Integer, Positions> byThread =
+      new HashMap<Integer, Positions>();
+
+  @Override
+  synchronized void add(LogRecord record) {
+    int position = records.size();
+    records.append(record);
+    positions(byLevel, record.getLevel().intValue()).add(position);
+    positions(byLogger, record.getLoggerName()).add(position);
+    positions(byThread, record.getThreadID()).add(position);
+  }
+
+  private static <K> Positions positions(Map<K, Positions> index, K key) {
+    Positions result = index.get(key);
+    if (result == null) {
+      result = new Positions();
+      index.put(key, result);
+    }
+    return result;
+  }
+
+  @Override
+  synchronized void clear() {
+    records = new AppendOnlyLog();
+    byLevel.clear();
+    byLogger.clear();
+    byThread.clear();
+  }
+
+  @Override
+  List<LogRecord> snapshot() {
+    return records.view();
+  }
+
+  @Override
+  void moveToEnd(LogRecordCursor cursor) {
+    AppendOnlyLog current = records;
+    cursor.generation = current;
+    cursor.position = current.size();
+  }
+
+  @Override
+  List<LogRecord> advance(LogRecordCursor cursor) {
+    return AppendOnlyLogRecordStore.advance(records, cursor);
+  }
+
+  @Override
+  synchronized int count(LogRecordQuery query) {
+    if (!query.byLogger() && query.loggerTree() == null && !query.byThread()
+        && query.pattern() == null) {
+      if (query.minimumLevel() == null) {
+        return records.size();
+      }
+      int count = 0;
+      for (Positions positions : levelsFrom(query.minimumLevel())) {
+        count += positions.size;
+      }
+      return count;
+    }
+    Candidates candidates = candidates(query);
+    int count = 0;
+    int position;
+    while ((position = candidates.next()) >= 0) {
+      if (query.matches(records.get(position))) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  synchronized List<LogRecord> select(LogRecordQuery query, int limit) {
+    List<LogRecord> result = new ArrayList<LogRecord>();
+    Candidates candidates = candidates(query);
+    int position;
+    while (result.size() < limit && (position = candidates.next()) >= 0) {
+      LogRecord record = records.get(position);
+      if (query.matches(record)) {
+        result.add(record);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the positions of the records that may match {@code query}, taken
+   * from its most selective index, without copying that index.
+   */
+  private Candidates candidates(LogRecordQuery query) {
+    if (query.byLogger()) {
+      return new Single(byLogger.get(query.loggerName()));
+    } else if (query.byThread()) {
+      return new Single(byThread.get(query.threadId()));
+    } else if (query.minimumLevel() != null) {
+      Collection<Positions> levels = levelsFrom(query.minimumLevel());
+      return (levels.size() == 1)
+          ? new Single(levels.iterator().next())
+          : new Merged(levels.toArray(new Positions[levels.size()]));
+    } else {
+      return new All(records.size());
+    }
+  }
+
+  private Collection<Positions> levelsFrom(Level level) {
+    return byLevel.tailMap(level.intValue(), true).values();
+  }
+
+  /**
+   * Iterates over record positions in ascending order, while the store is
+   * locked.
+   */
+  private abstract static class Candidates {
+
+    /** Returns the next position, or -1 if there are no more. */
+    abstract int next();
+  }
+
+  private static final class All extends Candidates {
+
+    private final int size;
+    private int next = 0;
+
+    All(int size) {
+      this.size = size;
+    }
+
+    @Override
+    int next() {
+      return (next < size) ? next++ : -1;
+    }
+  }
+
+  private static final class Single extends Candidates {
+
+    /** {@code null} if nothing was indexed under the key. */
+    private final Positions positions;
+    private int next = 0;
+
+    Single(Positions positions) {
+      this.positions = positions;
+    }
+
+    @Override
+    int next() {
+      return (positions != null && next < positions.size)
+          ? positions.values[next++]
+          : -1;
+    }
+  }
+
+  /**
+   * Merges the positions of a few levels, which are disjoint and each in
+   * ascending order, without sorting them again.
+   */
+  private static final class Merged extends Candidates {
+
+    private final Positions[] levels;
+    private final int[] heads;
+
+    Merged(Positions[] levels) {
+      this.levels = levels;
+      this.heads = new int[levels.length];
+    }
+
+    @Override
+    int next() {
+      int lowest = -1;
+      for (int i = 0; i < levels.length; i++) {
+        if (heads[i] < levels[i].size && (lowest < 0
+            || levels[i].values[heads[i]]
+                < levels[lowest].values[heads[lowest]])) {
+          lowest = i;
+        }
+      }
+      return (lowest < 0) ? -1 : levels[lowest].values[heads[lowest]++];
+    }
+  }
+
+  /** A growable array of record positions, in ascending order. */
+  private static final class Positions {
+
+    int[] values = new int[4];
+    int size = 0;
+
+    void add(int position) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, 2 * size);
+      }
+      values[size++] = position;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.testing;
+
+/**
+ * A {@link TearDownAccepter} whose {@link TearDown}s run once, when the JVM
+ * shuts down. Use it for fixtures that are expensive enough to be shared by
+ * every test of a run, e.g. an embedded database.
+ *
+ * <p>Since there is no test left to fail by then, exceptions thrown by these
+ * {@link TearDown}s are logged to {@link TearDownStack#logger}.
+ */
+public final class JvmTearDownAccepter implements TearDownAccepter {
+
+  private static final JvmTearDownAccepter INSTANCE = new JvmTearDownAccepter();
+
+  final TearDownStack stack = TearDownStack.newConcurrentInstance(true);
+
+  private JvmTearDownAccepter() {
+    Runtime.getRuntime().addShutdownHook(
+        new Thread("JvmTearDownAccepter") {
+          @Override
+          public void run() {
+            stack.runTearDown();
+          }
+        });
+  }
+
+  public static JvmTearDownAccepter getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Registers a TearDown implementor which will be run when the JVM shuts
+   * down.
+   */
+  @Override
+  public void addTearDown(TearDown tearDown) {
+    stack.addTearDown(tearDown);
+  }
+}
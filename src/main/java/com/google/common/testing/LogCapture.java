@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Installs a {@link TestLogHandler} on a set of loggers for the duration of a
+ * test, and restores their levels and handlers afterwards. A
+ * {@link LogCapture} is meant to be shared by the tests of a class: installing
+ * and restoring it allocates nothing, and the same {@link TestLogHandler} is
+ * {@linkplain TestLogHandler#clear cleared} after each test rather than
+ * replaced.
+ *
+ * <pre>
+ * static final LogCapture logs = new LogCapture(new TestLogHandler())
+ *     .capture(SomeClass.class.getName(), Level.FINE);
+ *
+ * {@code @Before}
+ * public void captureLogs() {
+ *   logs.install(this);
+ * }
+ * </pre>
+ *
+ * <p>See {@code junit4.TestLogRule} and {@code testng.LogCaptureListener}
+ * to install it without a {@code @Before} method. Those {@linkplain #install()
+ * take turns} when tests sharing a {@link LogCapture} run in parallel, since
+ * they would otherwise see each other's records.
+ */
+public final class LogCapture {
+
+  private final TestLogHandler handler;
+
+  // Strong references, so that the levels set on the loggers stick
+  private final List<Logger> loggers = new ArrayList<Logger>();
+  private final List<Level> levels = new ArrayList<Level>();
+  private Level[] savedLevels = new Level[0];
+
+  /** {@code null} while not installed. */
+  private Thread installedBy = null;
+
+  private final TearDown restore = new TearDown() {
+    public void tearDown() {
+      restore();
+    }
+  };
+
+  public LogCapture(TestLogHandler handler) {
+    if (handler == null) {
+      throw new NullPointerException("handler");
+    }
+    this.handler = handler;
+  }
+
+  /**
+   * Captures the records of the logger named {@code loggerName}, whose level is
+   * set to {@code level} while installed, or left alone if {@code level} is
+   * {@code null}.
+   *
+   * @return this
+   * @throws IllegalStateException if installed
+   */
+  public synchronized LogCapture capture(String loggerName, Level level) {
+    if (installedBy != null) {
+      throw new IllegalStateException("Can't add loggers while installed");
+    }
+    loggers.add(Logger.getLogger(loggerName));
+    levels.add(level);
+    savedLevels = new Level[loggers.size()];
+    return this;
+  }
+
+  public TestLogHandler getHandler() {
+    return handler;
+  }
+
+  /**
+   * Adds the handler to the loggers, and sets their levels, until
+   * {@code tearDownAccepter} tears down.
+   *
+   * @throws IllegalStateException if already installed
+   */
+  public synchronized void install(TearDownAccepter tearDownAccepter) {
+    if (installedBy != null) {
+      throw new IllegalStateException("Already installed");
+    }
+    doInstall();
+    tearDownAccepter.addTearDown(restore);
+  }
+
+  /**
+   * Adds the handler to the loggers, and sets their levels, until
+   * {@link #uninstall}. If another thread installed this capture, e.g. for a
+   * test running in parallel, waits until it is uninstalled, so that the tests
+   * sharing this capture take turns.
+   *
+   * @throws IllegalStateException if already installed by this thread
+   * @throws InterruptedException if interrupted while waiting for its turn
+   */
+  public synchronized void install() throws InterruptedException {
+    while (installedBy != null) {
+      if (installedBy == Thread.currentThread()) {
+        throw new IllegalStateException("Already installed");
+      }
+      wait();
+    }
+    doInstall();
+  }
+
+  /**
+   * Undoes {@link #install()}, and clears the handler, from any thread. Does
+   * nothing if not installed.
+   */
+  public void uninstall() {
+    restore();
+  }
+
+  private void doInstall() {
+    installedBy = Thread.currentThread();
+    for (int i = 0; i < loggers.size(); i++) {
+      Logger logger = loggers.get(i);
+      savedLevels[i] = logger.getLevel();
+      if (levels.get(i) != null) {
+        logger.setLevel(levels.get(i));
+      }
+      logger.addHandler(handler);
+    }
+  }
+
+  private synchronized void restore() {
+    if (installedBy == null) {
+      return;
+    }
+    for (int i = 0; i < loggers.size(); i++) {
+      Logger logger = loggers.get(i);
+      logger.removeHandler(handler);
+      logger.setLevel(savedLevels[i]);
+      savedLevels[i] = null;
+    }
+    handler.clear();
+    handler.clearExpectations();
+    installedBy = null;
+    notifyAll();
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.List;
+import java.util.logging.LogRecord;
+
+/**
+ * Walks through the records captured by a {@link TestLogHandler} as they get
+ * published, so that a test can check each batch of records once:
+ *
+ * <pre>
+ * LogRecordCursor cursor = handler.newCursor();
+ * server.start();
+ * assertNoErrors(cursor.advance());
+ * server.handle(request);
+ * assertNoErrors(cursor.advance());
+ * </pre>
+ *
+ * <p>Unless the handler is bounded, the records are returned without copying.
+ * A cursor is not meant to be shared between threads.
+ */
+public final class LogRecordCursor {
+
+  private final LogRecordStore store;
+
+  /**
+   * What the store {@link #position} refers to; the store changes it when it
+   * gets cleared, if its positions start over.
+   */
+  Object generation;
+  long position;
+
+  LogRecordCursor(LogRecordStore store) {
+    this.store = store;
+    store.moveToEnd(this);
+  }
+
+  /**
+   * Returns the records published since this cursor was created or last
+   * advanced, that the handler still keeps, in the order they were published.
+   * After the handler was {@linkplain TestLogHandler#clear cleared}, returns
+   * every record published since.
+   */
+  public List<LogRecord> advance() {
+    return store.advance(this);
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.regex.Pattern;
+
+/**
+ * Selects among the records captured by a {@link TestLogHandler}:
+ *
+ * <pre>
+ * int warnings = handler.query()
+ *     .atLeast(Level.WARNING)
+ *     .fromLogger(SomeClass.class.getName())
+ *     .count();
+ * LogRecord retry = handler.query()
+ *     .matching(Pattern.compile("retrying after \\d+ ms"))
+ *     .first();
+ * </pre>
+ *
+ * <p>Queries run against the records kept when they are evaluated. On a
+ * handler built with {@link TestLogHandler#newIndexedInstance}, they only
+ * visit the records logged by the given logger or thread, or at the given
+ * levels; otherwise they scan every record kept.
+ *
+ * <p>Tests of asynchronous code can {@link #await} records instead of polling
+ * for them:
+ *
+ * <pre>
+ * assertTrue(handler.query().matching(Pattern.compile("connected"))
+ *     .await(1, 10, TimeUnit.SECONDS));
+ * </pre>
+ */
+public final class LogRecordQuery {
+
+  private final TestLogHandler handler;
+  private final LogRecordStore store;
+
+  /** {@code null} when not filtering on it. */
+  private Level minimumLevel;
+  private boolean byLogger = false;
+  private String loggerName;
+  /** {@code null} when not filtering on it. */
+  private String loggerTree;
+  private boolean byThread = false;
+  private int threadId;
+  private Pattern pattern;
+
+  LogRecordQuery(TestLogHandler handler, LogRecordStore store) {
+    this.handler = handler;
+    this.store = store;
+  }
+
+  /**
+   * Selects the records logged at {@code level} or above.
+   */
+  public LogRecordQuery atLeast(Level level) {
+    if (level == null) {
+      throw new NullPointerException("level");
+    }
+    this.minimumLevel = level;
+    return this;
+  }
+
+  /**
+   * Selects the records logged by the logger named {@code loggerName}, which
+   * may be {@code null} for records without a logger name.
+   */
+  public LogRecordQuery fromLogger(String loggerName) {
+    this.byLogger = true;
+    this.loggerName = loggerName;
+    return this;
+  }
+
+  /**
+   * Selects the records logged by the logger named {@code loggerName} or by
+   * its descendants, e.g. by every logger of a package.
+   */
+  public LogRecordQuery underLogger(String loggerName) {
+    if (loggerName == null) {
+      throw new NullPointerException("loggerName");
+    }
+    this.loggerTree = loggerName;
+    return this;
+  }
+
+  /**
+   * Selects the records whose {@link LogRecord#getThreadID()} is
+   * {@code threadId}.
+   */
+  public LogRecordQuery fromThread(int threadId) {
+    this.byThread = true;
+    this.threadId = threadId;
+    return this;
+  }
+
+  /**
+   * Selects the records whose raw, unformatted message contains a match for
+   * {@code pattern}. A {@link TestLogHandler#newCompactInstance compact}
+   * handler only keeps formatted messages, so on such a handler the pattern is
+   * matched against the formatted message instead.
+   */
+  public LogRecordQuery matching(Pattern pattern) {
+    if (pattern == null) {
+      throw new NullPointerException("pattern");
+    }
+    this.pattern = pattern;
+    return this;
+  }
+
+  /**
+   * Returns how many records are selected.
+   */
+  public int count() {
+    return store.count(this);
+  }
+
+  /**
+   * Returns the earliest record selected, or {@code null} if there is none.
+   */
+  public LogRecord first() {
+    List<LogRecord> result = store.select(this, 1);
+    return result.isEmpty() ? null : result.get(0);
+  }
+
+  /**
+   * Returns the records selected, in the order they were logged.
+   */
+  public List<LogRecord> list() {
+    return store.select(this, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Blocks until at least {@code count} records are selected, or until
+   * {@code timeout} has elapsed. The records kept when waiting starts are
+   * counted once; from then on, each selected record counts as it is
+   * published, whether or not the handler keeps it, so this works on
+   * {@linkplain TestLogHandler#newStreamingInstance streaming} and bounded
+   * handlers too. The waiting thread is woken up by the thread that publishes
+   * the last record needed; nothing is polled, and nothing is counted again.
+   * A record published just as waiting starts may be counted twice.
+   *
+   * @return {@code true} if {@code count} records were selected, {@code false}
+   *     if the timeout elapsed first
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean await(int count, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    return handler.await(this, count, unit.toNanos(timeout));
+  }
+
+  Level minimumLevel() {
+    return minimumLevel;
+  }
+
+  boolean byLogger() {
+    return byLogger;
+  }
+
+  String loggerName() {
+    return loggerName;
+  }
+
+  String loggerTree() {
+    return loggerTree;
+  }
+
+  boolean byThread() {
+    return byThread;
+  }
+
+  int threadId() {
+    return threadId;
+  }
+
+  Pattern pattern() {
+    return pattern;
+  }
+
+  /**
+   * Returns whether the logger criteria select the records of the logger
+   * named {@code name}.
+   */
+  boolean matchesLogger(String name) {
+    if (byLogger && !(loggerName == null
+        ? name == null : loggerName.equals(name))) {
+      return false;
+    }
+    return loggerTree == null || isUnder(name, loggerTree);
+  }
+
+  boolean matches(LogRecord record) {
+    return matches(record.getLevel(), record.getLoggerName(),
+        record.getThreadID(), record.getMessage());
+  }
+
+  /**
+   * Returns whether the query selects a record of these fields, for stores
+   * that don't keep {@link LogRecord}s as such.
+   */
+  boolean matches(Level level, String loggerName, int threadId,
+      String message) {
+    if (minimumLevel != null && level.intValue() < minimumLevel.intValue()) {
+      return false;
+    }
+    if (!matchesLogger(loggerName)) {
+      return false;
+    }
+    if (byThread && threadId != this.threadId) {
+      return false;
+    }
+    if (pattern != null) {
+      return message != null && pattern.matcher(message).find();
+    }
+    return true;
+  }
+
+  private static boolean isUnder(String loggerName, String ancestor) {
+    return loggerName != null
+        && loggerName.startsWith(ancestor)
+        && (loggerName.length() == ancestor.length()
+            || loggerName.charAt(ancestor.length()) == '.');
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder("records");
+    if (minimumLevel != null) {
+      result.append(" at ").append(minimumLevel).append(" or above");
+    }
+    if (byLogger) {
+      result.append(" from logger ").append(loggerName);
+    }
+    if (loggerTree != null) {
+      result.append(" from under logger ").append(loggerTree);
+    }
+    if (byThread) {
+      result.append(" from thread ").append(threadId);
+    }
+    if (pattern != null) {
+      result.append(" matching ").append(pattern);
+    }
+    return result.toString();
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Where a {@link TestLogHandler} keeps the records it captures.
+ */
+abstract class LogRecordStore {
+
+  /**
+   * Keeps {@code record}, or drops it if the store is full; called
+   * concurrently by the logging threads.
+   */
+  abstract void add(LogRecord record);
+
+  abstract void clear();
+
+  /**
+   * Returns the records kept, in the order they were added, as a list that
+   * later additions do not affect.
+   */
+  abstract List<LogRecord> snapshot();
+
+  /**
+   * Positions {@code cursor} after the records added so far.
+   */
+  abstract void moveToEnd(LogRecordCursor cursor);
+
+  /**
+   * Returns the records kept that were added after the position of
+   * {@code cursor}, in the order they were added, and moves it past them.
+   */
+  abstract List<LogRecord> advance(LogRecordCursor cursor);
+
+  /**
+   * Returns how many of the records kept {@code query} selects.
+   */
+  int count(LogRecordQuery query) {
+    int count = 0;
+    for (LogRecord record : snapshot()) {
+      if (query.matches(record)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns up to {@code limit} of the records kept that {@code query}
+   * selects, in the order they were added.
+   */
+  List<LogRecord> select(LogRecordQuery query, int limit) {
+    List<LogRecord> result = new ArrayList<LogRecord>();
+    for (LogRecord record : snapshot()) {
+      if (result.size() == limit) {
+        break;
+      }
+      if (query.matches(record)) {
+        result.add(record);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns how many of the records kept were logged by the logger named
+   * {@code loggerName} at exactly {@code level}.
+   */
+  long count(String loggerName, Level level) {
+    long count = 0;
+    for (LogRecord record : snapshot()) {
+      if (record.getLevel().equals(level) && (loggerName == null
+          ? record.getLoggerName() == null
+          : loggerName.equals(record.getLoggerName()))) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns how many records were dropped because the store was full.
+   */
+  long droppedCount() {
+    return 0;
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.Arrays;
+
+/**
+ * A set of logger names, matching those names and the names of their
+ * descendants. Looking up a name walks the trie one character at a time, and
+ * allocates nothing.
+ */
+final class LoggerNameTrie {
+
+  private final Node root = new Node();
+
+  LoggerNameTrie(String... loggerNames) {
+    for (String loggerName : loggerNames) {
+      if (loggerName == null) {
+        throw new NullPointerException("loggerName");
+      }
+      Node node = root;
+      for (int i = 0; i < loggerName.length(); i++) {
+        node = node.child(loggerName.charAt(i), true);
+      }
+      node.terminal = true;
+    }
+  }
+
+  /**
+   * Returns whether {@code loggerName} is in the set, or descends from a name
+   * in it.
+   */
+  boolean matches(String loggerName) {
+    if (root.terminal) {
+      // the root logger, whose name is empty, is everyone's ancestor
+      return true;
+    }
+    if (loggerName == null) {
+      return false;
+    }
+    Node node = root;
+    for (int i = 0; i < loggerName.length(); i++) {
+      node = node.child(loggerName.charAt(i), false);
+      if (node == null) {
+        return false;
+      }
+      if (node.terminal && (i + 1 == loggerName.length()
+          || loggerName.charAt(i + 1) == '.')) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static final class Node {
+
+    /** Sorted, for binary search. */
+    char[] keys = new char[0];
+    Node[] children = new Node[0];
+    boolean terminal = false;
+
+    Node child(char key, boolean create) {
+      int index = Arrays.binarySearch(keys, key);
+      if (index >= 0) {
+        return children[index];
+      }
+      if (!create) {
+        return null;
+      }
+      int insertion = -index - 1;
+      char[] newKeys = new char[keys.length + 1];
+      Node[] newChildren = new Node[children.length + 1];
+      System.arraycopy(keys, 0, newKeys, 0, insertion);
+      System.arraycopy(children, 0, newChildren, 0, insertion);
+      System.arraycopy(keys, insertion, newKeys, insertion + 1,
+          keys.length - insertion);
+      System.arraycopy(children, insertion, newChildren, insertion + 1,
+          children.length - insertion);
+      Node result = new Node();
+      newKeys[insertion] = key;
+      newChildren[insertion] = result;
+      keys = newKeys;
+      children = newChildren;
+      return result;
+    }
+  }
+}
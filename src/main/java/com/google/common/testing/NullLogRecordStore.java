@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.LogRecord;
+
+/**
+ * Keeps no records at all.
+ */
+final class NullLogRecordStore extends LogRecordStore {
+
+  @Override
+  void add(LogRecord record) {}
+
+  @Override
+  void clear() {}
+
+  @Override
+  List<LogRecord> snapshot() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  void moveToEnd(LogRecordCursor cursor) {}
+
+  @Override
+  List<LogRecord> advance(LogRecordCursor cursor) {
+    return Collections.emptyList();
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * A handler that hands each record to the {@link TestLogHandler} of the test
+ * that logged it, so that tests running in parallel each see only their own
+ * records. Install one for the whole run, e.g. on the root logger, and have
+ * each test attach its own {@link TestLogHandler}:
+ *
+ * <pre>
+ * static final PartitionedLogHandler partitioned = new PartitionedLogHandler();
+ *
+ * {@code @Before}
+ * public void captureLogs() {
+ *   handler = new TestLogHandler();
+ *   partitioned.attach(handler, this);
+ * }
+ * </pre>
+ *
+ * <p>Records are attributed by thread: those published by the thread that
+ * attached the {@link TestLogHandler}, or by tasks {@link #propagate
+ * propagated} from it, go to that {@link TestLogHandler}. Since each test has
+ * its own {@link TestLogHandler}, publishing threads of different tests do not
+ * contend. Records published by other threads go to
+ * {@link #getUnattributed()}.
+ *
+ * <p>Attachments are detached from the thread that attached them, whichever
+ * thread tears down, so that a test whose teardown runs on another thread
+ * (e.g. under a {@link TearDownStack#setStackTimeout deadline}) does not leave
+ * its {@link TestLogHandler} attached to a pooled test thread.
+ */
+public class PartitionedLogHandler extends Handler {
+
+  private static final int UNATTRIBUTED_CAPACITY = 1000;
+
+  /**
+   * The slot of each thread, which other threads may clear when tearing down
+   * its attachment.
+   */
+  private final ThreadLocal<AtomicReference<TestLogHandler>> partition =
+      new ThreadLocal<AtomicReference<TestLogHandler>>() {
+        @Override
+        protected AtomicReference<TestLogHandler> initialValue() {
+          return new AtomicReference<TestLogHandler>();
+        }
+      };
+
+  private final TestLogHandler unattributed =
+      TestLogHandler.newRingBufferInstance(
+          UNATTRIBUTED_CAPACITY, TestLogHandler.OverflowPolicy.DROP_OLDEST);
+
+  /**
+   * Sends the records published by the current thread to {@code handler},
+   * until {@code tearDownAccepter} tears down.
+   */
+  public void attach(final TestLogHandler handler,
+      TearDownAccepter tearDownAccepter) {
+    if (handler == null) {
+      throw new NullPointerException("handler");
+    }
+    final AtomicReference<TestLogHandler> slot = partition.get();
+    final TestLogHandler previous = slot.getAndSet(handler);
+    tearDownAccepter.addTearDown(new TearDown() {
+      public void tearDown() {
+        slot.compareAndSet(handler, previous);
+      }
+    });
+  }
+
+  /**
+   * Returns the {@link TestLogHandler} the current thread publishes to, or
+   * {@code null} if there is none.
+   */
+  public TestLogHandler getAttached() {
+    return partition.get().get();
+  }
+
+  /**
+   * Returns the most recent records that no {@link TestLogHandler} was
+   * attached for.
+   */
+  public TestLogHandler getUnattributed() {
+    return unattributed;
+  }
+
+  /**
+   * Returns an executor that runs each task on {@code executor}, attributing
+   * its records to the {@link TestLogHandler} of the thread that submitted
+   * it.
+   */
+  public Executor propagate(final Executor executor) {
+    return new Executor() {
+      public void execute(Runnable task) {
+        executor.execute(propagate(task));
+      }
+    };
+  }
+
+  /**
+   * Returns a task that runs {@code task}, attributing its records to the
+   * {@link TestLogHandler} of the current thread.
+   */
+  public Runnable propagate(final Runnable task) {
+    final TestLogHandler handler = getAttached();
+    return new Runnable() {
+      public void run() {
+        AtomicReference<TestLogHandler> slot = partition.get();
+        TestLogHandler previous = slot.getAndSet(handler);
+        try {
+          task.run();
+        } finally {
+          slot.set(previous);
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns a task that calls {@code task}, attributing its records to the
+   * {@link TestLogHandler} of the current thread.
+   */
+  public <T> Callable<T> propagate(final Callable<T> task) {
+    final TestLogHandler handler = getAttached();
+    return new Callable<T>() {
+      public T call() throws Exception {
+        AtomicReference<TestLogHandler> slot = partition.get();
+        TestLogHandler previous = slot.getAndSet(handler);
+        try {
+          return task.call();
+        } finally {
+          slot.set(previous);
+        }
+      }
+    };
+  }
+
+  @Override
+  public void publish(LogRecord record) {
+    TestLogHandler handler = getAttached();
+    (handler == null ? unattributed : handler).publish(record);
+  }
+
+  @Override
+  public void flush() { }
+
+  @Override
+  public void close() { }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.testing;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the resources a test leaves behind: compares a {@link #snapshot()}
+ * taken before the test with the state of the process once its
+ * {@link TearDown}s have run. Leaked threads and file descriptors otherwise
+ * pile up in long-lived test JVMs, slowing them down until they fail with
+ * "too many open files".
+ *
+ * <p>File descriptors and listening sockets are read from {@code /proc}, and
+ * are not checked on platforms that don't have it. A leaked file descriptor is
+ * reported with what it points to, and a leaked thread with its current stack.
+ *
+ * <p>See {@link com.google.common.testing.junit4.TearDownMethodRule} and
+ * {@link com.google.common.testing.testng.TearDownTestCase} for running it
+ * around each test.
+ */
+public final class ResourceLeakDetector {
+
+  /**
+   * The kinds of resources a {@link ResourceLeakDetector} can check.
+   */
+  public enum Resource {
+    /** Entries of {@code /proc/self/fd}. */
+    FILE_DESCRIPTORS,
+    /** Live, non-daemon threads. */
+    THREADS,
+    /** Listening TCP sockets owned by this process. */
+    LISTENING_SOCKETS,
+    /**
+     * Memory used by the direct and mapped buffer pools. Since buffers are
+     * only released once collected, growth is confirmed after a GC.
+     */
+    BUFFER_POOLS
+  }
+
+  private static final String FD_DIRECTORY = "/proc/self/fd";
+  private static final List<String> TCP_TABLES =
+      Arrays.asList("/proc/net/tcp", "/proc/net/tcp6");
+  private static final String TCP_LISTEN = "0A";
+
+  private final Set<Resource> resources;
+  private volatile long gracePeriodNanos = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   * Creates a detector that checks every kind of {@link Resource}.
+   */
+  public ResourceLeakDetector() {
+    this(Resource.values());
+  }
+
+  public ResourceLeakDetector(Resource... resources) {
+    this.resources = EnumSet.noneOf(Resource.class);
+    this.resources.addAll(Arrays.asList(resources));
+  }
+
+  /**
+   * Sets how long {@link #checkForLeaks} waits for apparent leaks to go away,
+   * e.g. for the threads of a pool that was just shut down to terminate.
+   * Defaults to one second; only spent when something looks leaked.
+   */
+  public void setGracePeriod(long gracePeriod, TimeUnit unit) {
+    this.gracePeriodNanos = unit.toNanos(gracePeriod);
+  }
+
+  /**
+   * Records the resources currently in use.
+   */
+  public Snapshot snapshot() {
+    return new Snapshot();
+  }
+
+  /**
+   * Checks that nothing has been acquired since {@code before} was taken.
+   *
+   * @throws ResourceLeakException listing whatever was leaked
+   */
+  public void checkForLeaks(Snapshot before) {
+    long deadline = System.nanoTime() + gracePeriodNanos;
+    boolean collected = false;
+    List<String> leaks = findLeaks(before, new Snapshot());
+    while (!leaks.isEmpty() && System.nanoTime() - deadline < 0) {
+      if (!collected && resources.contains(Resource.BUFFER_POOLS)) {
+        System.gc();
+        collected = true;
+      }
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      leaks = findLeaks(before, new Snapshot());
+    }
+    if (!leaks.isEmpty()) {
+      throw new ResourceLeakException(leaks);
+    }
+  }
+
+  private List<String> findLeaks(Snapshot before, Snapshot after) {
+    List<String> leaks = new ArrayList<String>();
+    for (Map.Entry<String, String> fd : after.fileDescriptors.entrySet()) {
+      if (!fd.getValue().equals(before.fileDescriptors.get(fd.getKey()))) {
+        leaks.add("file descriptor " + fd.getKey() + " -> " + fd.getValue());
+      }
+    }
+    for (Thread thread : after.threads) {
+      if (!before.threads.contains(thread)) {
+        StringBuilder leak = new StringBuilder("thread \"")
+            .append(thread.getName()).append('"');
+        for (StackTraceElement element : thread.getStackTrace()) {
+          leak.append("\n    at ").append(element);
+        }
+        leaks.add(leak.toString());
+      }
+    }
+    for (Map.Entry<String, String> socket
+        : after.listeningSockets.entrySet()) {
+      if (!before.listeningSockets.containsKey(socket.getKey())) {
+        leaks.add("listening socket on port " + socket.getValue());
+      }
+    }
+    for (Map.Entry<String, Long> pool : after.bufferPools.entrySet()) {
+      Long used = before.bufferPools.get(pool.getKey());
+      if (used != null && pool.getValue() > used) {
+        leaks.add((pool.getValue() - used) + " bytes of " + pool.getKey()
+            + " buffers");
+      }
+    }
+    return leaks;
+  }
+
+  /**
+   * The resources in use at some point in time.
+   */
+  public final class Snapshot {
+
+    /** fd number to target */
+    final Map<String, String> fileDescriptors;
+    final Set<Thread> threads;
+    /** socket inode to port */
+    final Map<String, String> listeningSockets;
+    /** pool name to memory used */
+    final Map<String, Long> bufferPools;
+
+    Snapshot() {
+      Map<String, String> fds = (resources.contains(Resource.FILE_DESCRIPTORS)
+              || resources.contains(Resource.LISTENING_SOCKETS))
+          ? readFileDescriptors() : Collections.<String, String>emptyMap();
+      fileDescriptors = resources.contains(Resource.FILE_DESCRIPTORS)
+          ? fds : Collections.<String, String>emptyMap();
+      threads = resources.contains(Resource.THREADS)
+          ? liveThreads() : Collections.<Thread>emptySet();
+      listeningSockets = resources.contains(Resource.LISTENING_SOCKETS)
+          ? listeningSockets(fds) : Collections.<String, String>emptyMap();
+      bufferPools = resources.contains(Resource.BUFFER_POOLS)
+          ? bufferPools() : Collections.<String, Long>emptyMap();
+    }
+  }
+
+  private static Map<String, String> readFileDescriptors() {
+    Map<String, String> result = new HashMap<String, String>();
+    File[] fds = new File(FD_DIRECTORY).listFiles();
+    if (fds == null) {
+      return result;
+    }
+    for (File fd : fds) {
+      try {
+        String target = Files.readSymbolicLink(fd.toPath())
+            .toString();
+        // skip the descriptor used to list the directory itself
+        if (!target.startsWith("/proc/")) {
+          result.put(fd.getName(), target);
+        }
+      } catch (IOException e) {
+        // closed while we were listing
+      }
+    }
+    return result;
+  }
+
+  private static Set<Thread> liveThreads() {
+    Set<Thread> result = new HashSet<Thread>();
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.isAlive() && !thread.isDaemon()) {
+        result.add(thread);
+      }
+    }
+    return result;
+  }
+
+  private static Map<String, String> listeningSockets(
+      Map<String, String> fileDescriptors) {
+    Set<String> ownInodes = new HashSet<String>();
+    for (String target : fileDescriptors.values()) {
+      if (target.startsWith("socket:[")) {
+        ownInodes.add(
+            target.substring("socket:[".length(), target.length() - 1));
+      }
+    }
+    Map<String, String> result = new HashMap<String, String>();
+    for (String table : TCP_TABLES) {
+      try {
+        BufferedReader reader = new BufferedReader(new FileReader(table));
+        try {
+          reader.readLine(); // header
+          String line;
+          while ((line = reader.readLine()) != null) {
+            String[] columns = line.trim().split("\\s+");
+            if (columns.length > 9 && TCP_LISTEN.equals(columns[3])
+                && ownInodes.contains(columns[9])) {
+              String localAddress = columns[1];
+              String port = String.valueOf(Integer.parseInt(
+                  localAddress.substring(localAddress.indexOf(':') + 1), 16));
+              result.put(columns[9], port);
+            }
+          }
+        } finally {
+          reader.close();
+        }
+      } catch (IOException e) {
+        // no such table on this platform
+      }
+    }
+    return result;
+  }
+
+  private static Map<String, Long> bufferPools() {
+    Map<String, Long> result = new HashMap<String, Long>();
+    for (BufferPoolMXBean pool
+        : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+      result.put(pool.getName(), pool.getMemoryUsed());
+    }
+    return result;
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.testing;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reports the resources a test left behind once its {@link TearDown}s had run.
+ *
+ * @see ResourceLeakDetector
+ */
+public final class ResourceLeakException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final List<String> leaks;
+
+  ResourceLeakException(List<String> leaks) {
+    super(leaks.size() + " resources leaked:\n" + join(leaks));
+    this.leaks = Collections.unmodifiableList(leaks);
+  }
+
+  /**
+   * Returns a description of each leaked resource.
+   */
+  public List<String> getLeaks() {
+    return leaks;
+  }
+
+  private static String join(List<String> leaks) {
+    StringBuilder result = new StringBuilder();
+    for (String leak : leaks) {
+      result.append("  ").append(leak).append('\n');
+    }
+    return result.toString();
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import com.google.common.testing.TestLogHandler.OverflowPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.LogRecord;
+
+/**
+ * Keeps the records in a fixed number of slots, without locking. Each record
+ * gets a sequence number, and goes into the slot at that number modulo the
+ * capacity; a slot only ever moves on to a later record.
+ */
+final class RingBufferLogRecordStore extends LogRecordStore {
+
+  private final int capacity;
+  private final OverflowPolicy policy;
+  private final AtomicReferenceArray<Entry> slots;
+
+  /** The sequence number of the next record. */
+  private final AtomicLong tail = new AtomicLong();
+
+  /** The sequence number of the first record since the last clear. */
+  private volatile long head = 0;
+
+  private final AtomicLong dropped = new AtomicLong();
+
+  RingBufferLogRecordStore(int capacity, OverflowPolicy policy) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    if (policy == null) {
+      throw new NullPointerException("policy");
+    }
+    this.capacity = capacity;
+    this.policy = policy;
+    this.slots = new AtomicReferenceArray<Entry>(capacity);
+  }
+
+  @Override
+  void add(LogRecord record) {
+    long sequence = tail.getAndIncrement();
+    if (policy == OverflowPolicy.DROP_NEWEST && sequence - head >= capacity) {
+      dropped.incrementAndGet();
+      return;
+    }
+    Entry entry = new Entry(sequence, record);
+    int index = (int) (sequence % capacity);
+    Entry current;
+    do {
+      current = slots.get(index);
+      if (current != null && current.sequence > sequence) {
+        // overtaken by a later record while this thread was descheduled
+        countDropped(sequence);
+        return;
+      }
+    } while (!slots.compareAndSet(index, current, entry));
+    if (current != null) {
+      countDropped(current.sequence);
+    }
+  }
+
+  /**
+   * Counts the record of {@code sequence} as dropped, unless it had been
+   * cleared anyway.
+   */
+  private void countDropped(long sequence) {
+    if (sequence >= head) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  @Override
+  void clear() {
+    head = tail.get();
+  }
+
+  @Override
+  List<LogRecord> snapshot() {
+    return range(head, tail.get(), null);
+  }
+
+  @Override
+  void moveToEnd(LogRecordCursor cursor) {
+    cursor.position = tail.get();
+  }
+
+  @Override
+  List<LogRecord> advance(LogRecordCursor cursor) {
+    return range(Math.max(head, cursor.position), tail.get(), cursor);
+  }
+
+  /**
+   * Returns the records still kept whose sequence numbers are from
+   * {@code start}, which must not be below {@link #head}, to {@code end}.
+   * Records overwritten already are skipped. So are those not written yet,
+   * unless {@code cursor} is not {@code null}: then the range stops at the
+   * first of them, and the cursor is moved to where the range stopped, so
+   * that the next call picks them up.
+   */
+  private List<LogRecord> range(long start, long end, LogRecordCursor cursor) {
+    long last = end;
+    if (policy == OverflowPolicy.DROP_NEWEST) {
+      last = Math.min(end, head + capacity);
+    } else {
+      start = Math.max(start, end - capacity);
+    }
+    List<LogRecord> result =
+        new ArrayList<LogRecord>((int) Math.max(0, last - start));
+    for (long sequence = start; sequence < last; sequence++) {
+      Entry entry = slots.get((int) (sequence % capacity));
+      if (entry == null || entry.sequence < sequence) {
+        // claimed, but not written yet
+        if (cursor != null) {
+          cursor.position = sequence;
+          return result;
+        }
+      } else if (entry.sequence == sequence) {
+        result.add(entry.record);
+      }
+    }
+    if (cursor != null) {
+      // the records past the last one kept were dropped for good
+      cursor.position = end;
+    }
+    return result;
+  }
+
+  @Override
+  long droppedCount() {
+    return dropped.get();
+  }
+
+  private static final class Entry {
+
+    final long sequence;
+    final LogRecord record;
+
+    Entry(long sequence, LogRecord record) {
+      this.sequence = sequence;
+      this.record = record;
+    }
+  }
+}
@@ -16,7 +16,6 @@
 
 package com.google.common.testing;
 
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -30,12 +29,19 @@ public abstract class SloppyTearDown implements TearDown {
 
   public static final Logger logger = Logger.getLogger(SloppyTearDown.class.getName());
 
+  /**
+   * Where the exceptions thrown by {@link #sloppyTearDown()} get logged; see
+   * {@link SuppressedExceptionLog#setSummaryInterval} to only summarize
+   * repeated ones.
+   */
+  public static final SuppressedExceptionLog suppressedExceptions =
+      new SuppressedExceptionLog(logger);
+
   public final void tearDown() {
     try {
       sloppyTearDown(); 
     } catch (Throwable t) {
-      logger.log(Level.INFO,
-          "exception thrown during tearDown: " + t.getMessage(), t);
+      suppressedExceptions.report(t);
     }
   }
   
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that threads increment without contending with each other, as
+ * long as there are no more of them than stripes: each thread increments the
+ * stripe its id hashes to, and the stripes are summed when read. Stripes are
+ * a cache line apart, so that they do not share one.
+ */
+final class StripedCounter {
+
+  /** Longs per cache line. */
+  private static final int PADDING = 8;
+
+  private static final int STRIPES = stripes();
+
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+  private static int stripes() {
+    int processors = Runtime.getRuntime().availableProcessors();
+    int result = 1;
+    while (result < processors) {
+      result <<= 1;
+    }
+    return result;
+  }
+
+  void increment() {
+    long id = Thread.currentThread().getId();
+    int stripe = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (STRIPES - 1);
+    cells.incrementAndGet(stripe * PADDING);
+  }
+
+  long sum() {
+    long sum = 0;
+    for (int stripe = 0; stripe < STRIPES; stripe++) {
+      sum += cells.get(stripe * PADDING);
+    }
+    return sum;
+  }
+}
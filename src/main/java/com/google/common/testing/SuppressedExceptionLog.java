@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logs the exceptions that {@link SloppyTearDown}s and suppressing
+ * {@link TearDownStack}s swallow.
+ *
+ * <p>By default, each exception is logged at {@link Level#INFO} along with its
+ * stack trace. Once a {@link #setSummaryInterval summary interval} is set, only
+ * the first exception with a given {@link ExceptionFingerprint} is logged that
+ * way; the following ones are merely counted, and a summary of the counts is
+ * logged at most once per interval, when an exception gets reported. Nothing
+ * is formatted unless it is actually logged.
+ */
+public final class SuppressedExceptionLog {
+
+  /** Beyond this many fingerprints, exceptions are counted together. */
+  private static final int MAX_FINGERPRINTS = 256;
+
+  private final Logger logger;
+
+  /** Zero when every exception is logged. */
+  private volatile long intervalNanos = 0;
+
+  private boolean flushOnShutdown = false;
+
+  // guarded by this
+  private final Map<ExceptionFingerprint, Group> groups =
+      new LinkedHashMap<ExceptionFingerprint, Group>();
+  private int unfingerprinted = 0;
+  private long summaryStart = System.nanoTime();
+
+  SuppressedExceptionLog(Logger logger) {
+    this.logger = logger;
+  }
+
+  /**
+   * Sets how often to log a summary of the repeated exceptions, or zero to log
+   * every exception. What is left to summarize is also logged when the JVM
+   * shuts down, through {@link JvmTearDownAccepter}, but only on a best-effort
+   * basis: that shutdown hook runs concurrently with the one resetting the
+   * {@link java.util.logging.LogManager}, which may already have removed the
+   * handlers. Call {@link #flush} at the end of the suite to be sure the last
+   * summary is logged.
+   */
+  public void setSummaryInterval(long interval, TimeUnit unit) {
+    if (interval < 0) {
+      throw new IllegalArgumentException("Negative interval: " + interval);
+    }
+    synchronized (this) {
+      if (interval > 0 && !flushOnShutdown) {
+        flushOnShutdown = true;
+        JvmTearDownAccepter.getInstance().addTearDown(new TearDown() {
+          public void tearDown() {
+            flush();
+          }
+        });
+      }
+    }
+    this.intervalNanos = unit.toNanos(interval);
+  }
+
+  /**
+   * Logs a summary of the exceptions counted since the last one, if any. Call
+   * this at the end of the suite when a summary interval is set; see
+   * {@link #setSummaryInterval}.
+   */
+  public void flush() {
+    List<Group> summary;
+    int others;
+    long start;
+    synchronized (this) {
+      start = summaryStart;
+      others = unfingerprinted;
+      summary = takeSummary();
+    }
+    logSummary(summary, others, start);
+  }
+
+  void report(Throwable t) {
+    long interval = intervalNanos;
+    if (interval == 0) {
+      if (logger.isLoggable(Level.INFO)) {
+        logger.log(Level.INFO,
+            "exception thrown during tearDown: " + t.getMessage(), t);
+      }
+      return;
+    }
+    ExceptionFingerprint fingerprint = new ExceptionFingerprint(t);
+    boolean first = false;
+    List<Group> summary = null;
+    int others = 0;
+    long start = 0;
+    synchronized (this) {
+      Group group = groups.get(fingerprint);
+      if (group != null) {
+        group.count++;
+      } else if (groups.size() < MAX_FINGERPRINTS) {
+        groups.put(fingerprint, new Group(t));
+        first = true;
+      } else {
+        unfingerprinted++;
+      }
+      if (System.nanoTime() - summaryStart >= interval) {
+        start = summaryStart;
+        others = unfingerprinted;
+        summary = takeSummary();
+      }
+    }
+    if (first && logger.isLoggable(Level.INFO)) {
+      logger.log(Level.INFO, "exception thrown during tearDown: "
+          + t.getMessage() + " (repeats will be summarized)", t);
+    }
+    if (summary != null) {
+      logSummary(summary, others, start);
+    }
+  }
+
+  /**
+   * Returns the groups counted since the last summary, with their counts, and
+   * starts a new summary.
+   */
+  private List<Group> takeSummary() {
+    List<Group> summary = new ArrayList<Group>();
+    for (Group group : groups.values()) {
+      if (group.count > 0) {
+        summary.add(new Group(group.representative, group.count));
+        group.count = 0;
+      }
+    }
+    unfingerprinted = 0;
+    summaryStart = System.nanoTime();
+    return summary;
+  }
+
+  private void logSummary(List<Group> summary, int others, long start) {
+    if ((summary.isEmpty() && others == 0)
+        || !logger.isLoggable(Level.INFO)) {
+      return;
+    }
+    int total = others;
+    StringBuilder groupLines = new StringBuilder();
+    for (Group group : summary) {
+      total += group.count;
+      groupLines.append(String.format(
+          "%n  %d x %s", group.count, group.representative));
+    }
+    if (others > 0) {
+      groupLines.append(String.format("%n  %d x other exceptions", others));
+    }
+    logger.log(Level.INFO, String.format(
+        "%d more exceptions thrown during tearDown in the last %d ms:",
+        total, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+        + groupLines);
+  }
+
+  private static final class Group {
+
+    final Throwable representative;
+    /** Occurrences since the last summary, not counting the first one. */
+    int count;
+
+    Group(Throwable representative) {
+      this(representative, 0);
+    }
+
+    Group(Throwable representative, int count) {
+      this.representative = representative;
+      this.count = count;
+    }
+  }
+}
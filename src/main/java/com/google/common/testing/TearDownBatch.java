@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.List;
+
+/**
+ * Tears down several {@link BatchableTearDown}s in a single operation.
+ *
+ * @param <T> the type of the {@link TearDown}s torn down by this batch
+ */
+public interface TearDownBatch<T extends BatchableTearDown<T>> {
+
+  /**
+   * Tears down all of {@code members}, given in stack order. A failure that
+   * concerns only some members should be added to {@code failures}, so that
+   * the others still get torn down; each failure is reported on its own, just
+   * as if the members had been torn down one by one. Anything thrown is
+   * reported as one more failure.
+   */
+  void tearDown(List<T> members, List<Throwable> failures) throws Exception;
+}
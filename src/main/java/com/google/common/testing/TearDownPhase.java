@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.testing;
+
+/**
+ * A named group of {@link TearDown}s that must all run after the
+ * {@link TearDown}s of some other phases, whatever order they were registered
+ * in. For example:
+ *
+ * <pre>
+ * static final TearDownPhase CLIENTS = new TearDownPhase("clients");
+ * static final TearDownPhase SERVERS = new TearDownPhase("servers", CLIENTS);
+ * static final TearDownPhase FILES = new TearDownPhase("files", SERVERS);
+ * </pre>
+ *
+ * <p>Within a phase, {@link TearDown}s run in the reverse order of their
+ * registration. Phases that are not ordered relative to each other, as well as
+ * {@link TearDown}s registered without a phase, may run concurrently when the
+ * stack is torn down through {@link TearDownStack#runTearDown(
+ * java.util.concurrent.Executor)}.
+ *
+ * <p>Since a phase can only run after phases that already exist, phases can't
+ * form a cycle.
+ *
+ * @see TearDownStack#addTearDown(TearDown, TearDownPhase)
+ */
+public final class TearDownPhase {
+
+  private final String name;
+  final TearDownPhase[] runsAfter;
+
+  /**
+   * Creates a phase whose {@link TearDown}s run after all the ones of the
+   * {@code runsAfter} phases, and of the phases those run after.
+   */
+  public TearDownPhase(String name, TearDownPhase... runsAfter) {
+    if (name == null) {
+      throw new NullPointerException("name");
+    }
+    for (TearDownPhase phase : runsAfter) {
+      if (phase == null) {
+        throw new NullPointerException("runsAfter");
+      }
+    }
+    this.name = name;
+    this.runsAfter = runsAfter.clone();
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
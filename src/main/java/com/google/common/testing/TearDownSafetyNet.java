@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.testing;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Runs the {@link TearDown}s left in {@link TearDownStack}s that became
+ * unreachable without being torn down, e.g. because a test framework was
+ * misconfigured, so that their resources are not held for the rest of the run.
+ *
+ * <p>Each registered stack is tracked by a phantom reference that only holds
+ * on to the stack's contents; once the stack is collected, a daemon thread
+ * runs whatever is left and logs a warning to {@link TearDownStack#logger}.
+ *
+ * @see TearDownStack#enableSafetyNet
+ */
+final class TearDownSafetyNet {
+
+  private static final ReferenceQueue<TearDownStack> queue =
+      new ReferenceQueue<TearDownStack>();
+
+  /** Keeps the references themselves reachable until they are enqueued. */
+  private static final Set<StackReference> references =
+      Collections.newSetFromMap(new ConcurrentHashMap<StackReference, Boolean>());
+
+  static {
+    Thread thread = new Thread("TearDownStack-safety-net") {
+      @Override
+      public void run() {
+        while (true) {
+          try {
+            Reference<? extends TearDownStack> reference = queue.remove();
+            references.remove(reference);
+            ((StackReference) reference).runLeftovers();
+          } catch (InterruptedException e) {
+            // keep reaping; this thread lives as long as the JVM
+          } catch (Throwable t) {
+            TearDownStack.logger.log(Level.WARNING,
+                "exception thrown by the TearDown safety net", t);
+          }
+        }
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private TearDownSafetyNet() {}
+
+  /**
+   * Arranges for whatever is left in {@code tearDowns} to run once
+   * {@code stack} has been collected. {@code tearDowns} must not reference
+   * {@code stack}, directly or indirectly, or it will never be collected.
+   */
+  static void register(TearDownStack stack, Deque<TearDown> tearDowns) {
+    references.add(new StackReference(stack, tearDowns, queue));
+  }
+
+  private static final class StackReference
+      extends PhantomReference<TearDownStack> {
+
+    private final Deque<TearDown> tearDowns;
+
+    StackReference(TearDownStack stack, Deque<TearDown> tearDowns,
+        ReferenceQueue<TearDownStack> queue) {
+      super(stack, queue);
+      this.tearDowns = tearDowns;
+    }
+
+    void runLeftovers() {
+      if (tearDowns.isEmpty()) {
+        return;
+      }
+      TearDownStack.logger.log(Level.WARNING,
+          "A TearDownStack became unreachable with {0} TearDowns that never "
+          + "ran; running them now. Is runTearDown() missing from the test "
+          + "framework integration?", tearDowns.size());
+      TearDown tearDown;
+      while ((tearDown = tearDowns.pollFirst()) != null) {
+        try {
+          tearDown.tearDown();
+        } catch (Throwable t) {
+          TearDownStack.logger.log(Level.WARNING,
+              "exception thrown during tearDown: " + t.getMessage(), t);
+        }
+      }
+    }
+  }
+}
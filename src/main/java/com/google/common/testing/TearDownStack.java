@@ -16,15 +16,73 @@
 
 package com.google.common.testing;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.logging.Level;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
 /**
  * A {@code TearDownStack} contains a stack of {@link TearDown} instances.
  *
+ * <p>By default, {@link #runTearDown()} runs the {@link TearDown}s one by one,
+ * in the reverse order of their registration. {@link #runTearDown(Executor)}
+ * instead runs independent {@link TearDown}s concurrently; use
+ * {@link #addDependentTearDown} to keep a {@link TearDown} ahead of the ones
+ * it relies upon.
+ *
+ * <p>{@link TearDown}s registered with a {@link TearDownPhase} run after all the
+ * ones of the phases it runs after, whatever their registration order.
+ *
+ * <p>A stack built with {@link #newConcurrentInstance} accepts registrations
+ * from any number of threads without locking, e.g. from executor tasks spawned
+ * by the test. In either kind of stack, a {@link TearDown} may register further
+ * {@link TearDown}s while the stack is being torn down. {@link #runTearDown()}
+ * runs those next, unless the stack has phases or batches; with phases or
+ * batches, and with {@link #runTearDown(Executor)}, they run once every
+ * {@link TearDown} that was registered when the current round started is
+ * done, in the order of their own phases, batches and dependencies.
+ *
+ * <p>{@link AsyncTearDown}s are handed to the stack's
+ * {@link #setAsyncTearDownRunner AsyncTearDownRunner}, if it has one, instead
+ * of being run inline.
+ *
+ * <p>{@link BatchableTearDown}s of the same {@link TearDownBatch} are torn
+ * down together, in one call to that batch.
+ *
+ * <p>A {@link TearDown} that outlives the {@link #setTearDownTimeout
+ * per-TearDown} or {@link #setStackTimeout per-stack} deadline is abandoned,
+ * and reported as a {@link TearDownTimeoutException} along with the other
+ * failures.
+ *
+ * <p>A stack whose {@link #enableSafetyNet safety net} is enabled has its
+ * leftover {@link TearDown}s run if it becomes unreachable without being torn
+ * down.
+ *
+ * <p>Failures are reported together in a single exception; see
+ * {@link #setMaxDistinctFailures} to report repeated failures only once, and
+ * {@link #setLightweightFailures} to report many failures cheaply.
+ *
+ * <p>With {@link #setStatistics statistics}, the duration and outcome of each
+ * {@link TearDown} is recorded, along with the call site that registered it.
+ *
  * @author Kevin Bourrillion
  */
 public class TearDownStack implements TearDownAccepter {
@@ -32,42 +90,822 @@ public class TearDownStack implements TearDownAccepter {
   public static final Logger logger
       = Logger.getLogger(TearDownStack.class.getName());
 
-  final LinkedList<TearDown> stack = new LinkedList<TearDown>();
+  /**
+   * Where the exceptions swallowed by stacks built with
+   * {@code suppressThrows} get logged; see
+   * {@link SuppressedExceptionLog#setSummaryInterval} to only summarize
+   * repeated ones.
+   */
+  public static final SuppressedExceptionLog suppressedExceptions =
+      new SuppressedExceptionLog(logger);
+
+  final Deque<TearDown> stack;
+
+  private final boolean suppressThrows;
+
+  private volatile AsyncTearDownRunner asyncTearDownRunner;
+
+  /** Zero when there is no such deadline. */
+  private volatile long tearDownTimeoutNanos = 0;
+  private volatile long stackTimeoutNanos = 0;
+
+  private volatile TearDownStatistics statistics;
 
-  private final boolean suppressThrows; 
+  /** Zero when every failure is reported. */
+  private volatile int maxDistinctFailures = 0;
+  private volatile boolean lightweightFailures = false;
+
+  /** Whether a {@link TearDownPhase} was ever used; it never gets reset. */
+  private volatile boolean phased = false;
+
+  /**
+   * Whether a {@link BatchableTearDown} was ever registered; it never gets
+   * reset.
+   */
+  private volatile boolean batched = false;
+
+  private boolean safetyNetEnabled = false;
 
   public TearDownStack() {
-    this.suppressThrows = false;
+    this(false);
   }
 
   public TearDownStack(boolean suppressThrows) {
+    // An array that keeps its capacity from one run to the next
+    this(suppressThrows, new ArrayDeque<TearDown>());
+  }
+
+  private TearDownStack(boolean suppressThrows, Deque<TearDown> stack) {
     this.suppressThrows = suppressThrows;
+    this.stack = stack;
+  }
+
+  /**
+   * Returns a {@link TearDownStack} that can safely be registered with
+   * concurrently, backed by a lock-free deque.
+   */
+  public static TearDownStack newConcurrentInstance() {
+    return newConcurrentInstance(false);
+  }
+
+  /**
+   * Returns a {@link TearDownStack} that can safely be registered with
+   * concurrently, backed by a lock-free deque.
+   */
+  public static TearDownStack newConcurrentInstance(boolean suppressThrows) {
+    return new TearDownStack(
+        suppressThrows, new ConcurrentLinkedDeque<TearDown>());
   }
-  
+
+  /**
+   * Makes sure that the {@link TearDown}s of this stack eventually run, even
+   * if it is never torn down: once the stack has been garbage collected, the
+   * {@link TearDown}s left in it are run on a background thread, and a warning
+   * is logged to {@link #logger}. This guards against test framework
+   * integrations that fail before reaching {@link #runTearDown()}; it is no
+   * substitute for tearing down on time.
+   *
+   * <p>The {@link TearDown}s left in the stack are strongly held until they
+   * run, so the stack can only be collected if none of them references it,
+   * directly or through its owner. Anonymous {@link TearDown}s registered
+   * from a test method capture the test instance, which holds the stack:
+   * enabling the safety net for such a stack pins the test instance, and
+   * everything it references, for the lifetime of the JVM, without the
+   * safety net ever running. Only enable it for stacks whose
+   * {@link TearDown}s are self-contained, e.g. static nested classes.
+   */
+  public final synchronized void enableSafetyNet() {
+    if (!safetyNetEnabled) {
+      TearDownSafetyNet.register(this, stack);
+      safetyNetEnabled = true;
+    }
+  }
+
+  /**
+   * Sets the runner that {@link AsyncTearDown}s are handed to, or {@code null}
+   * to run them inline like any other {@link TearDown}.
+   */
+  public final void setAsyncTearDownRunner(AsyncTearDownRunner runner) {
+    this.asyncTearDownRunner = runner;
+  }
+
+  /**
+   * Sets how long each {@link TearDown} may run before it is abandoned, or
+   * zero for no limit. Once abandoned, a {@link TearDown} is interrupted and
+   * reported as a {@link TearDownTimeoutException}, and the next one runs.
+   *
+   * <p>When there is a deadline, {@link TearDown}s run on a separate thread.
+   */
+  public final void setTearDownTimeout(long timeout, TimeUnit unit) {
+    this.tearDownTimeoutNanos = checkTimeout(timeout, unit);
+  }
+
+  /**
+   * Sets how long a whole {@link #runTearDown()} may last, or zero for no
+   * limit. Once it has passed, the running {@link TearDown} is abandoned, and
+   * the remaining ones are not started; each is reported as a
+   * {@link TearDownTimeoutException}.
+   *
+   * <p>When there is a deadline, {@link TearDown}s run on a separate thread.
+   */
+  public final void setStackTimeout(long timeout, TimeUnit unit) {
+    this.stackTimeoutNanos = checkTimeout(timeout, unit);
+  }
+
+  /**
+   * Sets where to record the {@link TearDown}s of this stack, or {@code null}
+   * not to record them. Only {@link TearDown}s registered afterwards have
+   * their call site recorded.
+   */
+  public final void setStatistics(TearDownStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  /**
+   * Makes the stack report failures that share a stack trace fingerprint only
+   * once, along with how many times they occurred, keeping at most
+   * {@code maxDistinct} distinct failures per {@link #runTearDown()}; further
+   * failures are only counted. Zero, the default, reports every failure on
+   * its own.
+   *
+   * <p>This bounds the memory taken by failures, e.g. when hundreds of
+   * {@link TearDown}s fail identically because of one dead server.
+   */
+  public final void setMaxDistinctFailures(int maxDistinct) {
+    if (maxDistinct < 0) {
+      throw new IllegalArgumentException(
+          "Negative maximum of failures: " + maxDistinct);
+    }
+    this.maxDistinctFailures = maxDistinct;
+  }
+
+  /**
+   * Makes the stack report its failures through
+   * {@link ClusterException#createLightweight} rather than
+   * {@link ClusterException#create}: the {@link ClusterException} thrown has no
+   * stack trace of its own, and lists its members as suppressed exceptions.
+   * This is cheaper when teardown routinely fails many times, e.g. in
+   * chaos-style tests. Failures {@linkplain #setMaxDistinctFailures grouped} by
+   * fingerprint are always reported that way.
+   */
+  public final void setLightweightFailures(boolean lightweight) {
+    this.lightweightFailures = lightweight;
+  }
+
+  /**
+   * @throws NullPointerException if {@code tearDown} is null
+   */
   public final void addTearDown(TearDown tearDown) {
-    stack.addFirst(tearDown);
+    if (tearDown == null) {
+      throw new NullPointerException("tearDown");
+    }
+    if (tearDown instanceof BatchableTearDown) {
+      batched = true;
+    }
+    if (statistics == null) {
+      stack.addFirst(tearDown);
+    } else {
+      stack.addFirst(new Registration(tearDown, null, null, new Throwable()));
+    }
+  }
+
+  /**
+   * Registers a {@link TearDown} that will only run once the {@link TearDown}s
+   * of every phase {@code phase} runs after are done.
+   *
+   * @throws NullPointerException if {@code tearDown} or {@code phase} is null
+   */
+  public final void addTearDown(TearDown tearDown, TearDownPhase phase) {
+    if (tearDown == null) {
+      throw new NullPointerException("tearDown");
+    }
+    if (phase == null) {
+      throw new NullPointerException("phase");
+    }
+    phased = true;
+    stack.addFirst(new Registration(tearDown, null, phase,
+        statistics == null ? null : new Throwable()));
+  }
+
+  /**
+   * Registers a {@link TearDown} that relies upon {@code dependencies}, which
+   * must already have been registered with this stack. {@code tearDown} is
+   * guaranteed to finish before any of its dependencies starts, even when
+   * tearing down through {@link #runTearDown(Executor)}.
+   *
+   * @throws NullPointerException if {@code tearDown} is null
+   * @throws IllegalArgumentException if one of the {@code dependencies} has not
+   *     been registered with this stack
+   */
+  public final void addDependentTearDown(
+      TearDown tearDown, TearDown... dependencies) {
+    if (tearDown == null) {
+      throw new NullPointerException("tearDown");
+    }
+    for (TearDown dependency : dependencies) {
+      if (!containsTearDown(dependency)) {
+        throw new IllegalArgumentException(
+            "Dependency was not registered before its dependent: " + dependency);
+      }
+    }
+    stack.addFirst(new Registration(tearDown, dependencies.clone(), null,
+        statistics == null ? null : new Throwable()));
   }
 
   /**
    * Causes teardown to execute.
    */
   public final void runTearDown() {
-    List<Throwable> exceptions = new ArrayList<Throwable>();
-    for (TearDown tearDown : stack) {
+    ExceptionAggregator exceptions = null;
+    Long deadline = stackDeadline();
+    TearDown tearDown;
+    // one by one, until a phase or batch is registered, possibly by one of the
+    // TearDowns themselves
+    while (!phased && !batched && (tearDown = stack.pollFirst()) != null) {
       try {
+        execute(tearDown, deadline);
+      } catch (Throwable t) {
+        exceptions = handleThrowable(t, exceptions);
+      }
+    }
+    // TearDowns may register further TearDowns while they run
+    while (!stack.isEmpty()) {
+      Schedule schedule = new Schedule(drain(), deadline);
+      exceptions = handleThrowables(schedule.runInOrder(), exceptions);
+    }
+    throwIfNeeded(exceptions);
+  }
+
+  /**
+   * Causes teardown to execute, running the {@link TearDown}s on
+   * {@code executor}. {@link TearDown}s that do not depend on each other (see
+   * {@link #addDependentTearDown}) and whose phases are not ordered relative
+   * to each other may run concurrently; failures are reported exactly as they
+   * are by {@link #runTearDown()}.
+   *
+   * <p>This method blocks until every {@link TearDown} has completed.
+   */
+  public final void runTearDown(Executor executor) {
+    ExceptionAggregator exceptions = null;
+    Long deadline = stackDeadline();
+    // TearDowns may register further TearDowns while they run
+    while (!stack.isEmpty()) {
+      Schedule schedule = new Schedule(drain(), deadline);
+      exceptions = handleThrowables(schedule.run(executor), exceptions);
+    }
+    throwIfNeeded(exceptions);
+  }
+
+  /**
+   * Empties the stack, returning its contents in stack order, with the
+   * {@link BatchableTearDown}s of each batch coalesced.
+   */
+  private TearDown[] drain() {
+    List<TearDown> snapshot = new ArrayList<TearDown>();
+    TearDown tearDown;
+    while ((tearDown = stack.pollFirst()) != null) {
+      snapshot.add(tearDown);
+    }
+    return batched
+        ? coalesce(snapshot)
+        : snapshot.toArray(new TearDown[snapshot.size()]);
+  }
+
+  /**
+   * Replaces the {@link BatchableTearDown}s that share a batch with a single
+   * {@link Batch}, at the position of the last of them in stack order.
+   */
+  private static TearDown[] coalesce(List<TearDown> tearDowns) {
+    Map<TearDownBatch<?>, Batch> batches = new HashMap<TearDownBatch<?>, Batch>();
+    for (int i = 0; i < tearDowns.size(); i++) {
+      TearDown tearDown = tearDowns.get(i);
+      TearDownBatch<?> operation = batchOf(tearDown);
+      if (operation != null) {
+        Batch batch = batches.get(operation);
+        if (batch == null) {
+          batch = new Batch(operation);
+          batches.put(operation, batch);
+        }
+        batch.members.add((BatchableTearDown<?>) unwrap(tearDown));
+        batch.position = i;
+      }
+    }
+    List<TearDown> result = new ArrayList<TearDown>(tearDowns.size());
+    for (int i = 0; i < tearDowns.size(); i++) {
+      TearDown tearDown = tearDowns.get(i);
+      TearDownBatch<?> operation = batchOf(tearDown);
+      Batch batch = (operation == null) ? null : batches.get(operation);
+      if (batch == null || batch.members.size() == 1) {
+        result.add(tearDown);
+      } else if (batch.position == i) {
+        result.add(batch);
+      }
+    }
+    return result.toArray(new TearDown[result.size()]);
+  }
+
+  /**
+   * Returns the batch {@code tearDown} may be torn down with, or {@code null}
+   * if it must run on its own.
+   */
+  private static TearDownBatch<?> batchOf(TearDown tearDown) {
+    if (tearDown instanceof Registration) {
+      Registration registration = (Registration) tearDown;
+      if (registration.dependencies != null || registration.phase != null) {
+        return null;
+      }
+      tearDown = registration.delegate;
+    }
+    return (tearDown instanceof BatchableTearDown)
+        ? ((BatchableTearDown<?>) tearDown).getBatch()
+        : null;
+  }
+
+  /**
+   * @param stackDeadline the {@link System#nanoTime()} by which the whole stack
+   *     must be done, or {@code null} if there is no such deadline
+   */
+  private void execute(TearDown tearDown, Long stackDeadline)
+      throws Throwable {
+    TearDownStatistics statistics = this.statistics;
+    if (statistics == null) {
+      dispatch(tearDown, stackDeadline);
+      return;
+    }
+    Throwable failure = null;
+    long start = System.nanoTime();
+    try {
+      dispatch(tearDown, stackDeadline);
+    } catch (Throwable t) {
+      failure = t;
+      throw t;
+    } finally {
+      long nanos = System.nanoTime() - start;
+      Throwable registration = (tearDown instanceof Registration)
+          ? ((Registration) tearDown).callSite
+          : null;
+      statistics.record(unwrap(tearDown), registration, nanos, failure);
+    }
+  }
+
+  private void dispatch(TearDown tearDown, Long stackDeadline)
+      throws Throwable {
+    AsyncTearDownRunner runner = asyncTearDownRunner;
+    if (runner != null && unwrap(tearDown) instanceof AsyncTearDown) {
+      runner.submit(tearDown);
+    } else if (tearDownTimeoutNanos > 0 || stackDeadline != null) {
+      executeWithDeadline(tearDown, stackDeadline);
+    } else {
+      tearDown.tearDown();
+    }
+  }
+
+  private void executeWithDeadline(final TearDown tearDown, Long stackDeadline)
+      throws Throwable {
+    long timeout =
+        tearDownTimeoutNanos > 0 ? tearDownTimeoutNanos : Long.MAX_VALUE;
+    if (stackDeadline != null) {
+      timeout = Math.min(timeout, stackDeadline - System.nanoTime());
+      if (timeout <= 0) {
+        throw new TearDownTimeoutException(
+            "TearDown was not started, the stack deadline had passed: "
+            + unwrap(tearDown), null);
+      }
+    }
+    final AtomicReference<Thread> worker = new AtomicReference<Thread>();
+    Future<Void> future = Watchdog.EXECUTOR.submit(new Callable<Void>() {
+      public Void call() throws Exception {
+        worker.set(Thread.currentThread());
         tearDown.tearDown();
+        return null;
+      }
+    });
+    boolean interrupted = false;
+    try {
+      while (true) {
+        long start = System.nanoTime();
+        try {
+          future.get(timeout, TimeUnit.NANOSECONDS);
+          return;
+        } catch (InterruptedException e) {
+          // the deadline still holds for the TearDown
+          interrupted = true;
+          timeout -= System.nanoTime() - start;
+        }
+      }
+    } catch (ExecutionException e) {
+      throw e.getCause();
+    } catch (TimeoutException e) {
+      String threadDump = TearDownTimeoutException.dumpThreads();
+      TearDownTimeoutException timeoutException = new TearDownTimeoutException(
+          "TearDown did not complete within its deadline and was abandoned: "
+          + unwrap(tearDown), threadDump);
+      Thread stuck = worker.get();
+      if (stuck != null) {
+        timeoutException.setStackTrace(stuck.getStackTrace());
+      }
+      future.cancel(true);
+      throw timeoutException;
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private Long stackDeadline() {
+    long timeout = stackTimeoutNanos;
+    return timeout > 0 ? System.nanoTime() + timeout : null;
+  }
+
+  private static long checkTimeout(long timeout, TimeUnit unit) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("Negative timeout: " + timeout);
+    }
+    return unit.toNanos(timeout);
+  }
+
+  private boolean containsTearDown(TearDown tearDown) {
+    for (TearDown registered : stack) {
+      if (unwrap(registered) == tearDown) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns {@code exceptions}, or a new aggregator if it was {@code null} and
+   * {@code t} had to be added to it; nothing is allocated until a TearDown
+   * fails.
+   */
+  private ExceptionAggregator handleThrowable(
+      Throwable t, ExceptionAggregator exceptions) {
+    if (t instanceof BatchFailure) {
+      for (Throwable failure : ((BatchFailure) t).failures) {
+        exceptions = handleThrowable(failure, exceptions);
+      }
+    } else if (suppressThrows) {
+      suppressedExceptions.report(t);
+    } else {
+      if (exceptions == null) {
+        exceptions = new ExceptionAggregator(
+            maxDistinctFailures, lightweightFailures);
+      }
+      exceptions.add(t);
+    }
+    return exceptions;
+  }
+
+  private ExceptionAggregator handleThrowables(
+      Throwable[] failures, ExceptionAggregator exceptions) {
+    for (Throwable t : failures) {
+      if (t != null) {
+        exceptions = handleThrowable(t, exceptions);
+      }
+    }
+    return exceptions;
+  }
+
+  private void throwIfNeeded(ExceptionAggregator exceptions) {
+    if (exceptions != null) {
+      throw exceptions.toException();
+    }
+  }
+
+  private static TearDown unwrap(TearDown tearDown) {
+    return (tearDown instanceof Registration)
+        ? ((Registration) tearDown).delegate
+        : tearDown;
+  }
+
+  /**
+   * A {@link TearDown} registered along with its dependencies, phase or call
+   * site.
+   */
+  private static final class Registration implements TearDown {
+
+    final TearDown delegate;
+    /** {@code null} if registered without dependencies. */
+    final TearDown[] dependencies;
+    /** {@code null} if registered without a phase. */
+    final TearDownPhase phase;
+    /** {@code null} if registered without statistics. */
+    final Throwable callSite;
+
+    Registration(TearDown delegate, TearDown[] dependencies,
+        TearDownPhase phase, Throwable callSite) {
+      this.delegate = delegate;
+      this.dependencies = dependencies;
+      this.phase = phase;
+      this.callSite = callSite;
+    }
+
+    public void tearDown() throws Exception {
+      delegate.tearDown();
+    }
+  }
+
+  /**
+   * The {@link BatchableTearDown}s of a snapshot of the stack that share a
+   * {@link TearDownBatch}, torn down in a single call to it.
+   */
+  private static final class Batch implements TearDown {
+
+    final TearDownBatch<?> operation;
+    final List<BatchableTearDown<?>> members =
+        new ArrayList<BatchableTearDown<?>>();
+    /** Index of the last member in the snapshot. */
+    int position;
+
+    Batch(TearDownBatch<?> operation) {
+      this.operation = operation;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void tearDown() {
+      List<Throwable> failures = new ArrayList<Throwable>();
+      try {
+        ((TearDownBatch) operation).tearDown(members, failures);
       } catch (Throwable t) {
-        if (suppressThrows) {
-          TearDownStack.logger.log(Level.INFO,
-              "exception thrown during tearDown: " + t.getMessage(), t);
+        failures.add(t);
+      }
+      if (!failures.isEmpty()) {
+        throw new BatchFailure(failures);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return operation + " of " + members.size() + " TearDowns";
+    }
+  }
+
+  /**
+   * Carries the failures of a {@link Batch} up to the stack, which reports
+   * them one by one.
+   */
+  private static final class BatchFailure extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    final List<Throwable> failures;
+
+    BatchFailure(List<Throwable> failures) {
+      super(null, null, false, false);
+      this.failures = failures;
+    }
+  }
+
+  /**
+   * Runs a snapshot of the stack as a graph: a {@link TearDown} may start once
+   * every {@link TearDown} depending on it is done, and once every phase its
+   * own phase runs after is done.
+   *
+   * <p>Nodes are the {@link TearDown}s, in stack order, followed by a start and
+   * an end node for each phase: a start node precedes every {@link TearDown} of
+   * its phase, and waits for the end nodes of all the phases that phase runs
+   * after; an end node waits for every {@link TearDown} of its phase.
+   */
+  private final class Schedule {
+
+    private final TearDown[] tearDowns;
+    private final Throwable[] failures;
+    /** For each node, the nodes waiting for it. */
+    private final int[][] successors;
+    /** For each node, how many nodes it waits for. */
+    private final int[] predecessorCounts;
+    private final Long deadline;
+
+    Schedule(TearDown[] tearDowns, Long deadline) {
+      int size = tearDowns.length;
+      this.tearDowns = tearDowns;
+      this.deadline = deadline;
+      this.failures = new Throwable[size];
+
+      Map<TearDownPhase, Integer> phases =
+          new IdentityHashMap<TearDownPhase, Integer>();
+      for (TearDown tearDown : tearDowns) {
+        TearDownPhase phase = phaseOf(tearDown);
+        if (phase != null && !phases.containsKey(phase)) {
+          // start node at size + 2 * ordinal, end node right after it
+          phases.put(phase, size + 2 * phases.size());
+        }
+      }
+      int nodes = size + 2 * phases.size();
+      List<List<Integer>> edges = new ArrayList<List<Integer>>(nodes);
+      for (int i = 0; i < nodes; i++) {
+        edges.add(new ArrayList<Integer>(0));
+      }
+      this.predecessorCounts = new int[nodes];
+
+      // Walk in registration order, so that a dependency resolves to its
+      // latest registration preceding the dependent one.
+      Map<TearDown, Integer> indices = new IdentityHashMap<TearDown, Integer>();
+      for (int i = size - 1; i >= 0; i--) {
+        TearDown tearDown = tearDowns[i];
+        if (tearDown instanceof Registration) {
+          Registration registration = (Registration) tearDown;
+          if (registration.dependencies != null) {
+            for (TearDown dependency : registration.dependencies) {
+              Integer index = indices.get(dependency);
+              // null if a concurrent teardown drained the dependency after it
+              // was checked; that teardown takes care of it
+              if (index != null) {
+                addEdge(edges, i, index);
+              }
+            }
+          }
+          if (registration.phase != null) {
+            int start = phases.get(registration.phase);
+            addEdge(edges, start, i);
+            addEdge(edges, i, start + 1);
+          }
+        }
+        if (tearDown instanceof Batch) {
+          for (TearDown member : ((Batch) tearDown).members) {
+            indices.put(member, i);
+          }
         } else {
-          exceptions.add(t);
+          indices.put(unwrap(tearDown), i);
+        }
+      }
+      for (Map.Entry<TearDownPhase, Integer> entry : phases.entrySet()) {
+        Map<TearDownPhase, Boolean> ancestors =
+            new IdentityHashMap<TearDownPhase, Boolean>();
+        collectAncestors(entry.getKey(), ancestors);
+        for (TearDownPhase ancestor : ancestors.keySet()) {
+          Integer ancestorStart = phases.get(ancestor);
+          if (ancestorStart != null) {
+            addEdge(edges, ancestorStart + 1, entry.getValue());
+          }
+        }
+      }
+
+      this.successors = new int[nodes][];
+      for (int i = 0; i < nodes; i++) {
+        List<Integer> list = edges.get(i);
+        successors[i] = new int[list.size()];
+        for (int j = 0; j < successors[i].length; j++) {
+          successors[i][j] = list.get(j);
         }
       }
     }
-    stack.clear();
-    if ((!suppressThrows) && (exceptions.size() > 0)) {
-      throw ClusterException.create(exceptions);
+
+    private void addEdge(List<List<Integer>> edges, int from, int to) {
+      edges.get(from).add(to);
+      predecessorCounts[to]++;
     }
+
+    /**
+     * Runs the {@link TearDown}s on the calling thread, always picking the
+     * first one in stack order that is free to start.
+     *
+     * @return the failures, in stack order, with {@code null} entries for the
+     *     {@link TearDown}s that succeeded
+     */
+    Throwable[] runInOrder() {
+      int[] pending = predecessorCounts.clone();
+      PriorityQueue<Integer> ready = new PriorityQueue<Integer>();
+      ArrayDeque<Integer> readyPhaseNodes = new ArrayDeque<Integer>();
+      for (int i = 0; i < pending.length; i++) {
+        if (pending[i] == 0) {
+          enqueue(i, ready, readyPhaseNodes);
+        }
+      }
+      while (true) {
+        int node;
+        if (!readyPhaseNodes.isEmpty()) {
+          // phase nodes go first, they may free up earlier TearDowns
+          node = readyPhaseNodes.poll();
+        } else if (!ready.isEmpty()) {
+          node = ready.poll();
+          runNode(node);
+        } else {
+          return failures;
+        }
+        for (int successor : successors[node]) {
+          if (--pending[successor] == 0) {
+            enqueue(successor, ready, readyPhaseNodes);
+          }
+        }
+      }
+    }
+
+    private void enqueue(int node, PriorityQueue<Integer> ready,
+        ArrayDeque<Integer> readyPhaseNodes) {
+      if (node < tearDowns.length) {
+        ready.add(node);
+      } else {
+        readyPhaseNodes.add(node);
+      }
+    }
+
+    /**
+     * Runs the {@link TearDown}s on {@code executor}, submitting each as soon
+     * as it is free to start, and blocks until all are done.
+     *
+     * @return the failures, in stack order, with {@code null} entries for the
+     *     {@link TearDown}s that succeeded
+     */
+    Throwable[] run(Executor executor) {
+      AtomicIntegerArray pending = new AtomicIntegerArray(predecessorCounts);
+      CountDownLatch done = new CountDownLatch(tearDowns.length);
+      for (int i = 0; i < predecessorCounts.length; i++) {
+        if (predecessorCounts[i] == 0) {
+          start(executor, pending, done, i);
+        }
+      }
+      boolean interrupted = false;
+      while (true) {
+        try {
+          done.await();
+          break;
+        } catch (InterruptedException e) {
+          // TearDowns must not be abandoned halfway
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      return failures;
+    }
+
+    private void start(final Executor executor,
+        final AtomicIntegerArray pending, final CountDownLatch done,
+        final int node) {
+      if (node >= tearDowns.length) {
+        // phase nodes have nothing to run
+        completed(executor, pending, done, node);
+        return;
+      }
+      Runnable task = new Runnable() {
+        public void run() {
+          try {
+            runNode(node);
+            completed(executor, pending, done, node);
+          } finally {
+            // whatever happens, run(Executor) must not wait for us forever
+            done.countDown();
+          }
+        }
+      };
+      try {
+        executor.execute(task);
+      } catch (RuntimeException e) {
+        // rejected, or a broken executor: the TearDowns that follow must not
+        // be stranded
+        task.run();
+      }
+    }
+
+    private void completed(Executor executor, AtomicIntegerArray pending,
+        CountDownLatch done, int node) {
+      for (int successor : successors[node]) {
+        if (pending.decrementAndGet(successor) == 0) {
+          start(executor, pending, done, successor);
+        }
+      }
+    }
+
+    private void runNode(int index) {
+      try {
+        execute(tearDowns[index], deadline);
+      } catch (Throwable t) {
+        failures[index] = t;
+      }
+    }
+  }
+
+  private static TearDownPhase phaseOf(TearDown tearDown) {
+    return (tearDown instanceof Registration)
+        ? ((Registration) tearDown).phase
+        : null;
+  }
+
+  private static void collectAncestors(
+      TearDownPhase phase, Map<TearDownPhase, Boolean> ancestors) {
+    for (TearDownPhase ancestor : phase.runsAfter) {
+      if (ancestors.put(ancestor, Boolean.TRUE) == null) {
+        collectAncestors(ancestor, ancestors);
+      }
+    }
+  }
+
+  /**
+   * Runs the {@link TearDown}s that have a deadline. Abandoned ones keep their
+   * (daemon) thread, so that they can't hold up the ones that follow.
+   */
+  private static final class Watchdog {
+
+    static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+        new ThreadFactory() {
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "TearDownStack-watchdog");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
   }
 }
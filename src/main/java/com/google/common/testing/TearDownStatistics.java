@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.testing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records how long the {@link TearDown}s of one or more
+ * {@link TearDownStack}s take, aggregated by the call site that registered
+ * them, to find out which fixtures are worth optimizing. Share one instance
+ * across the stacks of a whole run, and write the report at the end:
+ *
+ * <pre>
+ * static final TearDownStatistics statistics = new TearDownStatistics();
+ *
+ * {@code @Rule}
+ * public final TearDownMethodRule tearDownRule = newRule();
+ *
+ * static TearDownMethodRule newRule() {
+ *   TearDownStack stack = new TearDownStack();
+ *   stack.setStatistics(statistics);
+ *   return new TearDownMethodRule(stack);
+ * }
+ *
+ * {@code @AfterClass}
+ * public static void report() throws IOException {
+ *   statistics.writeCsv(new FileWriter("teardown.csv"));
+ * }
+ * </pre>
+ *
+ * <p>Durations are measured with {@link System#nanoTime()}. Nothing is
+ * formatted until a report is written.
+ *
+ * @see TearDownStack#setStatistics
+ */
+public final class TearDownStatistics {
+
+  /**
+   * Frames of the TearDown plumbing itself, skipped when looking for the
+   * call site of a registration.
+   */
+  private static final Set<String> PLUMBING = new HashSet<String>(Arrays.asList(
+      TearDownStack.class.getName(),
+      "com.google.common.testing.junit4.TearDownMethodRule",
+      "com.google.common.testing.junit4.TearDownTestCase",
+      "com.google.common.testing.testng.TearDownTestCase"));
+
+  private static final String[] COLUMNS = {
+      "class", "method", "line", "tearDownClass",
+      "count", "failures", "timeouts", "totalNanos", "maxNanos"};
+
+  private final ConcurrentMap<Key, Entry> entries =
+      new ConcurrentHashMap<Key, Entry>();
+
+  void record(TearDown tearDown, Throwable registration, long nanos,
+      Throwable failure) {
+    Key key = new Key(callSite(registration), tearDown.getClass());
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      Entry newEntry = new Entry(key);
+      entry = entries.putIfAbsent(key, newEntry);
+      if (entry == null) {
+        entry = newEntry;
+      }
+    }
+    entry.add(nanos, failure);
+  }
+
+  /**
+   * Forgets everything recorded so far.
+   */
+  public void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Writes one line per call site and {@link TearDown} class, slowest first,
+   * preceded by a header line.
+   */
+  public void writeCsv(Appendable out) throws IOException {
+    appendRow(out, COLUMNS);
+    for (Entry entry : sortedEntries()) {
+      appendRow(out, entry.values());
+    }
+  }
+
+  /**
+   * Writes a JSON array with one object per call site and {@link TearDown}
+   * class, slowest first.
+   */
+  public void writeJson(Appendable out) throws IOException {
+    out.append('[');
+    String separator = "\n";
+    for (Entry entry : sortedEntries()) {
+      out.append(separator).append("  {");
+      String[] values = entry.values();
+      for (int i = 0; i < COLUMNS.length; i++) {
+        if (i > 0) {
+          out.append(", ");
+        }
+        out.append('"').append(COLUMNS[i]).append("\": ");
+        if (i < 2 || i == 3) {
+          appendJsonString(out, values[i]);
+        } else {
+          out.append(values[i].isEmpty() ? "null" : values[i]);
+        }
+      }
+      out.append('}');
+      separator = ",\n";
+    }
+    out.append("\n]\n");
+  }
+
+  private List<Entry> sortedEntries() {
+    List<Entry> result = new ArrayList<Entry>(entries.values());
+    Collections.sort(result, new Comparator<Entry>() {
+      public int compare(Entry a, Entry b) {
+        long x = a.totalNanos.get();
+        long y = b.totalNanos.get();
+        return (x < y) ? 1 : ((x == y) ? 0 : -1);
+      }
+    });
+    return result;
+  }
+
+  private static StackTraceElement callSite(Throwable registration) {
+    if (registration == null) {
+      return null;
+    }
+    for (StackTraceElement element : registration.getStackTrace()) {
+      if (!PLUMBING.contains(element.getClassName())) {
+        return element;
+      }
+    }
+    return null;
+  }
+
+  private static void appendRow(Appendable out, String[] values)
+      throws IOException {
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) {
+        out.append(',');
+      }
+      String value = values[i];
+      if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0) {
+        out.append('"').append(value.replace("\"", "\"\"")).append('"');
+      } else {
+        out.append(value);
+      }
+    }
+    out.append('\n');
+  }
+
+  private static void appendJsonString(Appendable out, String value)
+      throws IOException {
+    out.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.append('\\').append(c);
+      } else if (c < 0x20) {
+        out.append(String.format("\\u%04x", (int) c));
+      } else {
+        out.append(c);
+      }
+    }
+    out.append('"');
+  }
+
+  private static final class Key {
+
+    /** {@code null} if the call site is unknown. */
+    final StackTraceElement callSite;
+    final Class<?> tearDownClass;
+
+    Key(StackTraceElement callSite, Class<?> tearDownClass) {
+      this.callSite = callSite;
+      this.tearDownClass = tearDownClass;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (!(object instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) object;
+      return tearDownClass == that.tearDownClass
+          && (callSite == null
+              ? that.callSite == null : callSite.equals(that.callSite));
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * tearDownClass.hashCode()
+          + (callSite == null ? 0 : callSite.hashCode());
+    }
+  }
+
+  private static final class Entry {
+
+    final Key key;
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+    final AtomicLong timeouts = new AtomicLong();
+    final AtomicLong totalNanos = new AtomicLong();
+    final AtomicLong maxNanos = new AtomicLong();
+
+    Entry(Key key) {
+      this.key = key;
+    }
+
+    void add(long nanos, Throwable failure) {
+      count.incrementAndGet();
+      if (failure instanceof TearDownTimeoutException) {
+        timeouts.incrementAndGet();
+      } else if (failure != null) {
+        failures.incrementAndGet();
+      }
+      totalNanos.addAndGet(nanos);
+      long max;
+      while (nanos > (max = maxNanos.get())
+          && !maxNanos.compareAndSet(max, nanos)) {}
+    }
+
+    String[] values() {
+      StackTraceElement callSite = key.callSite;
+      return new String[] {
+          callSite == null ? "" : callSite.getClassName(),
+          callSite == null ? "" : callSite.getMethodName(),
+          (callSite == null || callSite.getLineNumber() < 0)
+              ? "" : String.valueOf(callSite.getLineNumber()),
+          key.tearDownClass.getName(),
+          String.valueOf(count.get()),
+          String.valueOf(failures.get()),
+          String.valueOf(timeouts.get()),
+          String.valueOf(totalNanos.get()),
+          String.valueOf(maxNanos.get())};
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.testing;
+
+import java.util.Map;
+
+/**
+ * Reports a {@link TearDown} that did not complete within the deadlines of its
+ * {@link TearDownStack}, and was abandoned. Its stack trace is the one of the
+ * stuck {@link TearDown} at the time it was abandoned, if it had started.
+ *
+ * @see TearDownStack#setTearDownTimeout
+ * @see TearDownStack#setStackTimeout
+ */
+public final class TearDownTimeoutException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String threadDump;
+
+  TearDownTimeoutException(String message, String threadDump) {
+    super(message);
+    this.threadDump = threadDump;
+  }
+
+  /**
+   * Returns the stack traces of all live threads at the time the
+   * {@link TearDown} was abandoned, or {@code null} if it never started.
+   */
+  public String getThreadDump() {
+    return threadDump;
+  }
+
+  static String dumpThreads() {
+    StringBuilder result = new StringBuilder();
+    for (Map.Entry<Thread, StackTraceElement[]> entry
+        : Thread.getAllStackTraces().entrySet()) {
+      Thread thread = entry.getKey();
+      result.append('"').append(thread.getName()).append("\" ")
+          .append(thread.getState()).append('\n');
+      for (StackTraceElement element : entry.getValue()) {
+        result.append("\tat ").append(element).append('\n');
+      }
+      result.append('\n');
+    }
+    return result.toString();
+  }
+}
@@ -16,10 +16,14 @@
 
 package com.google.common.testing;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Handler;
+import java.util.logging.Level;
 import java.util.logging.LogRecord;
 
 /**
@@ -48,20 +52,194 @@ import java.util.logging.LogRecord;
  *
  * You can see more usage examples in {@link TestLogHandlerTest}.
  *
+ * <p>By default, every record is kept, and {@link #getStoredLogRecords()}
+ * returns a view of them rather than a copy; {@link #newCursor()} returns only
+ * the records published since it was last asked. For tests that log too much
+ * for that, {@link #newRingBufferInstance} keeps only a bounded number of
+ * records, without locking.
+ *
+ * <p>{@link #newCompactInstance} keeps only the fields tests usually assert on,
+ * for tests that log too much to keep whole records.
+ *
+ * <p>Expectations registered before exercising the code under test, with
+ * {@link #expectAtMost} and {@link #expectAtLeast}, are checked as records are
+ * published, and fail as soon as they are violated;
+ * {@link #newStreamingInstance} only checks expectations, and keeps no record.
+ *
+ * <p>{@link #newCountingInstance} keeps no record at all, only how many records
+ * each logger logged at each level; it can be left installed indefinitely.
+ *
+ * <p>{@link #setCaptureLevel}, {@link #setCapturedLoggers} and
+ * {@link #setSamplingRate} narrow down which records are captured at all;
+ * the others are ignored before anything is locked or allocated.
+ *
+ * <p>{@link #query()} selects records by level, logger, thread or message;
+ * {@link #newIndexedInstance} makes such queries cheap on large captures.
+ *
  * @author kevinb
  */
 public class TestLogHandler extends Handler {
 
-  /** We will keep a private list of all logged records */
-  private final List<LogRecord> list =
-      Collections.synchronizedList(new ArrayList<LogRecord>());
+  /**
+   * What a bounded {@link TestLogHandler} does with a record once it is full.
+   */
+  public enum OverflowPolicy {
+    /** Keep the record, evicting the oldest one kept. */
+    DROP_OLDEST,
+    /** Drop the record. */
+    DROP_NEWEST
+  }
+
+  /** We will keep a private store of all logged records */
+  private final LogRecordStore store;
+
+  /** {@code null} when every record is captured. */
+  private volatile CaptureFilter filter;
+
+  /** The threads blocked in {@link LogRecordQuery#await}. */
+  private final List<Waiter> waiters = new CopyOnWriteArrayList<Waiter>();
+
+  private final List<Expectation> expectations =
+      new CopyOnWriteArrayList<Expectation>();
+
+  /** The first expectation violated, if any. */
+  private final AtomicReference<AssertionError> violation =
+      new AtomicReference<AssertionError>();
+
+  public TestLogHandler() {
+    this(new AppendOnlyLogRecordStore());
+  }
+
+  private TestLogHandler(LogRecordStore store) {
+    this.store = store;
+  }
+
+  /**
+   * Returns a {@link TestLogHandler} that keeps at most {@code capacity}
+   * records, in a ring buffer that the logging threads write to without
+   * locking. Once it is full, {@code policy} decides which records are
+   * dropped; see {@link #getDroppedRecordCount}.
+   *
+   * @throws IllegalArgumentException if {@code capacity} is not positive
+   */
+  public static TestLogHandler newRingBufferInstance(
+      int capacity, OverflowPolicy policy) {
+    return new TestLogHandler(new RingBufferLogRecordStore(capacity, policy));
+  }
 
   /**
-   * Adds the most recently logged record to our list.
+   * Returns a {@link TestLogHandler} that keeps every record, and indexes them
+   * by level, logger name and thread as they are published, so that
+   * {@link #query() queries} need not scan every record.
+   */
+  public static TestLogHandler newIndexedInstance() {
+    return new TestLogHandler(new IndexedLogRecordStore());
+  }
+
+  /**
+   * Returns a {@link TestLogHandler} that keeps every record in a compact,
+   * columnar form: only the level, time, logger name, thread id, formatted
+   * message and class of the thrown exception are kept. Queries run on these
+   * columns, and {@link LogRecord}s are only rebuilt for the records read. The
+   * rebuilt records have no parameters or resource bundle, and their thrown
+   * exception, if any, is a {@link ThrownSummary}; {@link
+   * LogRecordQuery#matching} applies to their formatted message.
+   */
+  public static TestLogHandler newCompactInstance() {
+    return new TestLogHandler(new CompactLogRecordStore());
+  }
+
+  /**
+   * Returns a {@link TestLogHandler} that keeps no record: it only checks the
+   * {@link #expectAtMost expectations} registered with it, and its
+   * {@link #query() queries} and {@link #newCursor() cursors} find nothing.
+   */
+  public static TestLogHandler newStreamingInstance() {
+    return new TestLogHandler(new NullLogRecordStore());
+  }
+
+  /**
+   * Returns a {@link TestLogHandler} that keeps no record, only how many
+   * records were logged by each logger at each level, in counters that the
+   * logging threads update without contending. See {@link #getCount}.
+   *
+   * <p>Like a {@link #newStreamingInstance streaming} handler, it returns no
+   * record: {@link #getStoredLogRecords()}, {@link LogRecordCursor#advance()}
+   * and the {@link LogRecordQuery#first()} and {@link LogRecordQuery#list()}
+   * of its {@link #query() queries} return nothing. Its queries are counted
+   * from the counters, so {@link LogRecordQuery#count()} may only select by
+   * logger and level, and throws {@link UnsupportedOperationException}
+   * otherwise.
+   */
+  public static TestLogHandler newCountingInstance() {
+    return new TestLogHandler(new CountingLogRecordStore());
+  }
+
+  /**
+   * Adds the most recently logged record to our store.
+   *
+   * @throws AssertionError if the record violates an expectation
    */
   @Override
   public void publish(LogRecord record) {
-    list.add(record);
+    CaptureFilter currentFilter = filter;
+    if (currentFilter != null && !currentFilter.accepts(record)) {
+      return;
+    }
+    store.add(record);
+    if (!expectations.isEmpty()) {
+      for (Expectation expectation : expectations) {
+        expectation.check(record);
+      }
+    }
+    if (!waiters.isEmpty()) {
+      for (Waiter waiter : waiters) {
+        if (waiter.query.matches(record)) {
+          waiter.add(1);
+        }
+      }
+    }
+  }
+
+  /**
+   * Ignores the records logged below {@code level}.
+   */
+  public synchronized void setCaptureLevel(Level level) {
+    if (level == null) {
+      throw new NullPointerException("level");
+    }
+    setFilter(currentFilter().withMinimumLevel(level));
+  }
+
+  /**
+   * Ignores the records of loggers other than those named
+   * {@code loggerNames} and their descendants; with no names, captures the
+   * records of every logger again.
+   */
+  public synchronized void setCapturedLoggers(String... loggerNames) {
+    setFilter(currentFilter().withLoggers(
+        loggerNames.length == 0 ? null : new LoggerNameTrie(loggerNames)));
+  }
+
+  /**
+   * Captures each record with probability {@code rate}, and ignores the
+   * others; 1, the default, captures every record.
+   *
+   * @throws IllegalArgumentException unless {@code rate} is between 0 and 1
+   */
+  public synchronized void setSamplingRate(double rate) {
+    if (!(rate >= 0.0 && rate <= 1.0)) {
+      throw new IllegalArgumentException("Rate not between 0 and 1: " + rate);
+    }
+    setFilter(currentFilter().withSamplingRate(rate));
+  }
+
+  private CaptureFilter currentFilter() {
+    return (filter == null) ? CaptureFilter.ACCEPT_ALL : filter;
+  }
+
+  private void setFilter(CaptureFilter newFilter) {
+    filter = newFilter.isAcceptAll() ? null : newFilter;
   }
 
   @Override
@@ -71,15 +249,216 @@ public class TestLogHandler extends Handler {
   public void close() { }
 
   public void clear() {
-    list.clear();
+    store.clear();
   }
 
   /**
    * Fetch the list of logged records
-   * @return unmodifiable LogRecord list of all logged records
+   * @return unmodifiable LogRecord list of all logged records that are still
+   *     kept
    */
   public List<LogRecord> getStoredLogRecords() {
-    List<LogRecord> result = new ArrayList<LogRecord>(list);
-    return Collections.unmodifiableList(result);
+    return Collections.unmodifiableList(store.snapshot());
+  }
+
+  /**
+   * Expects {@code query} to select at most {@code max} of the records
+   * published from now on. The record that exceeds {@code max} fails right
+   * away: publishing it throws an {@link AssertionError}, which
+   * {@link #verifyExpectations()} throws again in case the code under test
+   * swallowed it.
+   */
+  public void expectAtMost(int max, LogRecordQuery query) {
+    if (max < 0) {
+      throw new IllegalArgumentException("Negative maximum: " + max);
+    }
+    expectations.add(new Expectation(query, 0, max));
+  }
+
+  /**
+   * Expects {@code query} to select at least {@code min} of the records
+   * published from now on, by the time {@link #verifyExpectations()} is
+   * called.
+   */
+  public void expectAtLeast(int min, LogRecordQuery query) {
+    if (min < 0) {
+      throw new IllegalArgumentException("Negative minimum: " + min);
+    }
+    expectations.add(new Expectation(query, min, Integer.MAX_VALUE));
+  }
+
+  /**
+   * Throws the first violation of an expectation, if any, or an
+   * {@link AssertionError} for the first expectation whose minimum was not
+   * reached.
+   */
+  public void verifyExpectations() {
+    AssertionError first = violation.get();
+    if (first != null) {
+      throw first;
+    }
+    for (Expectation expectation : expectations) {
+      int count = expectation.count.get();
+      if (count < expectation.min) {
+        throw new AssertionError(String.format(
+            "Expected at least %d %s, but got %d",
+            expectation.min, expectation.query, count));
+      }
+    }
+  }
+
+  /**
+   * Forgets every expectation, and any violation of them.
+   */
+  public void clearExpectations() {
+    expectations.clear();
+    violation.set(null);
+  }
+
+  /**
+   * Returns how many of the records kept, or counted, were logged by the
+   * logger named {@code loggerName} at exactly {@code level}.
+   */
+  public long getCount(String loggerName, Level level) {
+    return store.count(loggerName, level);
+  }
+
+  /**
+   * Returns a cursor positioned after the records published so far.
+   */
+  public LogRecordCursor newCursor() {
+    return new LogRecordCursor(store);
+  }
+
+  /**
+   * Returns a new query over the records kept by this handler.
+   */
+  public LogRecordQuery query() {
+    return new LogRecordQuery(this, store);
+  }
+
+  boolean await(LogRecordQuery query, int count, long timeoutNanos)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + timeoutNanos;
+    Waiter waiter = new Waiter(query, count);
+    waiters.add(waiter);
+    try {
+      // registered first, so that no record published from now on is missed,
+      // even if the store never keeps it or drops it before it is counted
+      waiter.add(countKept(query));
+      return waiter.awaitTarget(deadline);
+    } finally {
+      waiters.remove(waiter);
+    }
+  }
+
+  /**
+   * Returns how many of the records kept {@code query} selects, or zero if the
+   * store can't tell, e.g. a counting one asked about messages.
+   */
+  private static int countKept(LogRecordQuery query) {
+    try {
+      return query.count();
+    } catch (UnsupportedOperationException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Returns how many records were dropped since this handler was created
+   * because it was full; always zero unless it is bounded.
+   */
+  public long getDroppedRecordCount() {
+    return store.droppedCount();
+  }
+
+  /**
+   * Stands in for the exception thrown along with a record that was kept by a
+   * {@link #newCompactInstance compact handler}; only its class is known.
+   */
+  public static final class ThrownSummary extends Throwable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Class<?> thrownClass;
+
+    ThrownSummary(Class<?> thrownClass) {
+      super(thrownClass.getName(), null, false, false);
+      this.thrownClass = thrownClass;
+    }
+
+    /**
+     * Returns the class of the exception that was thrown.
+     */
+    public Class<?> getThrownClass() {
+      return thrownClass;
+    }
+  }
+
+  private final class Expectation {
+
+    final LogRecordQuery query;
+    final int min;
+    final int max;
+    final AtomicInteger count = new AtomicInteger();
+
+    Expectation(LogRecordQuery query, int min, int max) {
+      if (query == null) {
+        throw new NullPointerException("query");
+      }
+      this.query = query;
+      this.min = min;
+      this.max = max;
+    }
+
+    void check(LogRecord record) {
+      if (query.matches(record) && count.incrementAndGet() > max) {
+        AssertionError error = new AssertionError(String.format(
+            "Expected at most %d %s, but got another: %s: %s",
+            max, query, record.getLevel(), record.getMessage()));
+        violation.compareAndSet(null, error);
+        throw error;
+      }
+    }
+  }
+
+  /**
+   * Counts the records selected by a query, as they are published, until
+   * there are enough of them.
+   */
+  private static final class Waiter {
+
+    final LogRecordQuery query;
+    private final int target;
+    private int count = 0; // guarded by this
+
+    Waiter(LogRecordQuery query, int target) {
+      this.query = query;
+      this.target = target;
+    }
+
+    synchronized void add(int records) {
+      count += records;
+      if (count >= target) {
+        notifyAll();
+      }
+    }
+
+    /**
+     * Waits until the target count is reached.
+     *
+     * @return {@code false} if the deadline passed first
+     */
+    synchronized boolean awaitTarget(long deadline)
+        throws InterruptedException {
+      while (count < target) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+      return true;
+    }
   }
 }
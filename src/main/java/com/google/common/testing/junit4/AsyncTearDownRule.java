@@ -0,0 +1,79 @@
+// Copyright 2010 Google Inc. All Rights Reserved.
+
+package com.google.common.testing.junit4;
+
+import com.google.common.testing.AsyncTearDown;
+import com.google.common.testing.AsyncTearDownRunner;
+import com.google.common.testing.TearDownStack;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.MultipleFailureException;
+import org.junit.runners.model.Statement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A class-level rule that lets the {@link AsyncTearDown}s of each test overlap
+ * with the tests that follow, and waits for all of them once the class (or
+ * suite, if applied to a suite class) is done:
+ *
+ * <pre>
+ * {@code @ClassRule}
+ * public static final AsyncTearDownRule asyncTearDowns = new AsyncTearDownRule();
+ *
+ * {@code @Rule}
+ * public final TearDownMethodRule tearDownRule = asyncTearDowns.newMethodRule();
+ * </pre>
+ *
+ * <p>Failures of the {@link AsyncTearDown}s are reported as a failure of the
+ * class.
+ */
+public final class AsyncTearDownRule implements TestRule {
+
+  final AsyncTearDownRunner runner;
+
+  public AsyncTearDownRule() {
+    this(new AsyncTearDownRunner());
+  }
+
+  public AsyncTearDownRule(AsyncTearDownRunner runner) {
+    this.runner = runner;
+  }
+
+  /**
+   * Returns a {@link TearDownMethodRule} that hands its {@link AsyncTearDown}s
+   * to this rule.
+   */
+  public TearDownMethodRule newMethodRule() {
+    TearDownStack stack = new TearDownStack();
+    stack.setAsyncTearDownRunner(runner);
+    return new TearDownMethodRule(stack);
+  }
+
+  /**
+   * Don't call this method directly -- it fullfils the {@link TestRule}
+   * interface.
+   */
+  @Override
+  public Statement apply(final Statement base, Description description) {
+    return new Statement() {
+      @Override
+      public void evaluate() throws Throwable {
+        List<Throwable> errors = new ArrayList<Throwable>();
+        try {
+          base.evaluate();
+        } catch (Throwable t) {
+          errors.add(t);
+        }
+        try {
+          runner.awaitCompletion();
+        } catch (Throwable t) {
+          errors.add(t);
+        }
+        MultipleFailureException.assertEmpty(errors);
+      }
+    };
+  }
+}
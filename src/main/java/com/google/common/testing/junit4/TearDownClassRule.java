@@ -0,0 +1,89 @@
+// Copyright 2010 Google Inc. All Rights Reserved.
+
+package com.google.common.testing.junit4;
+
+import com.google.common.testing.JvmTearDownAccepter;
+import com.google.common.testing.TearDown;
+import com.google.common.testing.TearDownAccepter;
+import com.google.common.testing.TearDownStack;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.MultipleFailureException;
+import org.junit.runners.model.Statement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The class-level counterpart of {@link TearDownMethodRule}: its
+ * {@link TearDown}s run once, after all tests of the class. This lets the tests
+ * of a class share an expensive fixture:
+ *
+ * <pre>
+ * {@code @ClassRule}
+ * public static final TearDownClassRule classTearDown = new TearDownClassRule();
+ *
+ * private static Server server;
+ *
+ * {@code @BeforeClass}
+ * public static void startServer() {
+ *   server = Server.start();
+ *   classTearDown.addTearDown(new TearDown() {
+ *     public void tearDown() {
+ *       server.stop();
+ *     }
+ *   });
+ * }
+ * </pre>
+ *
+ * <p>Applied to a suite class, the {@link TearDown}s run once the whole suite
+ * is done. For fixtures shared by the whole JVM, see
+ * {@link JvmTearDownAccepter}.
+ */
+public final class TearDownClassRule implements TestRule, TearDownAccepter {
+
+  final TearDownStack stack;
+
+  public TearDownClassRule() {
+    this(TearDownStack.newConcurrentInstance());
+  }
+
+  public TearDownClassRule(TearDownStack stack) {
+    this.stack = stack;
+  }
+
+  /**
+   * Registers a TearDown implementor which will be run after all tests of the
+   * class.
+   */
+  @Override
+  public void addTearDown(TearDown tearDown) {
+    stack.addTearDown(tearDown);
+  }
+
+  /**
+   * Don't call this method directly -- it fullfils the {@link TestRule}
+   * interface.
+   */
+  @Override
+  public Statement apply(final Statement base, Description description) {
+    return new Statement() {
+      @Override
+      public void evaluate() throws Throwable {
+        List<Throwable> errors = new ArrayList<Throwable>();
+        try {
+          base.evaluate();
+        } catch (Throwable t) {
+          errors.add(t);
+        }
+        try {
+          stack.runTearDown();
+        } catch (Throwable t) {
+          errors.add(t);
+        }
+        MultipleFailureException.assertEmpty(errors);
+      }
+    };
+  }
+}
@@ -2,6 +2,7 @@
 
 package com.google.common.testing.junit4;
 
+import com.google.common.testing.ResourceLeakDetector;
 import com.google.common.testing.TearDown;
 import com.google.common.testing.TearDownAccepter;
 import com.google.common.testing.TearDownStack;
@@ -17,7 +18,33 @@ import org.junit.runners.model.Statement;
  */
 public final class TearDownMethodRule implements MethodRule, TearDownAccepter {
 
-  final TearDownStack stack = new TearDownStack();
+  final TearDownStack stack;
+
+  /** {@code null} if leaks are not checked for. */
+  private final ResourceLeakDetector leakDetector;
+
+  public TearDownMethodRule() {
+    this(new TearDownStack());
+  }
+
+  /**
+   * Creates a rule that registers with {@code stack}, e.g. a
+   * {@link TearDownStack#newConcurrentInstance concurrent} one.
+   */
+  public TearDownMethodRule(TearDownStack stack) {
+    this(stack, null);
+  }
+
+  /**
+   * Creates a rule that registers with {@code stack}, and that uses
+   * {@code leakDetector} to fail tests that leave resources behind once their
+   * {@link TearDown}s have run.
+   */
+  public TearDownMethodRule(
+      TearDownStack stack, ResourceLeakDetector leakDetector) {
+    this.stack = stack;
+    this.leakDetector = leakDetector;
+  }
 
   /**
    * Registers a TearDown implementor which will be run after the test execution.
@@ -36,8 +63,23 @@ public final class TearDownMethodRule implements MethodRule, TearDownAccepter {
     return new Statement() {
       @Override
       public void evaluate() throws Throwable {
-        base.evaluate();
+        ResourceLeakDetector.Snapshot before =
+            (leakDetector == null) ? null : leakDetector.snapshot();
+        try {
+          base.evaluate();
+        } catch (Throwable t) {
+          // Tear down even if the test failed, without hiding its failure
+          try {
+            stack.runTearDown();
+          } catch (RuntimeException e) {
+            t.addSuppressed(e);
+          }
+          throw t;
+        }
         stack.runTearDown();
+        if (before != null) {
+          leakDetector.checkForLeaks(before);
+        }
       }
     };
   }
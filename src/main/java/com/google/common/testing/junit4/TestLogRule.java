@@ -0,0 +1,70 @@
+// Copyright 2010 Google Inc. All Rights Reserved.
+
+package com.google.common.testing.junit4;
+
+import com.google.common.testing.LogCapture;
+import com.google.common.testing.TestLogHandler;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Installs a {@link LogCapture} around each test, and fails the test if it
+ * violated the {@linkplain TestLogHandler#expectAtMost expectations}
+ * registered with the handler:
+ *
+ * <pre>
+ * {@code @Rule}
+ * public final TestLogRule logs = new TestLogRule(LOGS);
+ *
+ * static final LogCapture LOGS = new LogCapture(new TestLogHandler())
+ *     .capture(SomeClass.class.getName(), Level.FINE);
+ *
+ * {@code @Test}
+ * public void test() {
+ *   SomeClass.foo();
+ *   assertEquals(0, logs.getHandler().query().atLeast(Level.WARNING).count());
+ * }
+ * </pre>
+ *
+ * <p>Keeping the {@link LogCapture} in a static field reuses its handler
+ * across the tests of the class, so that the rule allocates nothing per test.
+ * Tests sharing it that run in parallel {@linkplain LogCapture#install() take
+ * turns}.
+ */
+public final class TestLogRule implements TestRule {
+
+  private final LogCapture capture;
+
+  public TestLogRule(LogCapture capture) {
+    if (capture == null) {
+      throw new NullPointerException("capture");
+    }
+    this.capture = capture;
+  }
+
+  public TestLogHandler getHandler() {
+    return capture.getHandler();
+  }
+
+  /**
+   * Don't call this method directly -- it fullfils the {@link TestRule}
+   * interface.
+   */
+  @Override
+  public Statement apply(final Statement base, Description description) {
+    return new Statement() {
+      @Override
+      public void evaluate() throws Throwable {
+        capture.install();
+        try {
+          base.evaluate();
+          capture.getHandler().verifyExpectations();
+        } finally {
+          capture.uninstall();
+        }
+      }
+    };
+  }
+}
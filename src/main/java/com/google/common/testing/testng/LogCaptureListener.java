@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing.testng;
+
+import com.google.common.testing.LogCapture;
+import com.google.common.testing.TestLogHandler;
+
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.ITestResult;
+
+/**
+ * Installs the {@link LogCapture} of each test class that implements
+ * {@link Capturing} around its test methods, and fails a test that violated
+ * the {@linkplain TestLogHandler#expectAtMost expectations} registered with
+ * the handler:
+ *
+ * <pre>
+ * {@code @Listeners(LogCaptureListener.class)}
+ * public class SomeTest implements LogCaptureListener.Capturing {
+ *
+ *   private final LogCapture logs = new LogCapture(new TestLogHandler())
+ *       .capture(SomeClass.class.getName(), Level.FINE);
+ *
+ *   public LogCapture getLogCapture() {
+ *     return logs;
+ *   }
+ * }
+ * </pre>
+ *
+ * <p>Test methods sharing a {@link LogCapture} that run in parallel
+ * {@linkplain LogCapture#install() take turns}.
+ */
+public class LogCaptureListener implements IInvokedMethodListener {
+
+  /**
+   * A test class whose test methods capture logs.
+   */
+  public interface Capturing {
+    LogCapture getLogCapture();
+  }
+
+  @Override
+  public void beforeInvocation(IInvokedMethod method, ITestResult testResult) {
+    LogCapture capture = captureOf(method, testResult);
+    if (capture != null) {
+      try {
+        capture.install();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(
+            "Interrupted while waiting to install the LogCapture", e);
+      }
+    }
+  }
+
+  @Override
+  public void afterInvocation(IInvokedMethod method, ITestResult testResult) {
+    LogCapture capture = captureOf(method, testResult);
+    if (capture == null) {
+      return;
+    }
+    try {
+      if (testResult.isSuccess()) {
+        capture.getHandler().verifyExpectations();
+      }
+    } catch (AssertionError e) {
+      testResult.setStatus(ITestResult.FAILURE);
+      testResult.setThrowable(e);
+    } finally {
+      capture.uninstall();
+    }
+  }
+
+  private static LogCapture captureOf(
+      IInvokedMethod method, ITestResult testResult) {
+    Object instance = testResult.getInstance();
+    return (method.isTestMethod() && instance instanceof Capturing)
+        ? ((Capturing) instance).getLogCapture()
+        : null;
+  }
+}
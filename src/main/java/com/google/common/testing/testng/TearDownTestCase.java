@@ -16,6 +16,10 @@
 
 package com.google.common.testing.testng;
 
+import com.google.common.testing.AsyncTearDown;
+import com.google.common.testing.AsyncTearDownRunner;
+import com.google.common.testing.JvmTearDownAccepter;
+import com.google.common.testing.ResourceLeakDetector;
 import com.google.common.testing.TearDown;
 import com.google.common.testing.TearDownAccepter;
 import com.google.common.testing.TearDownStack;
@@ -23,6 +27,8 @@ import com.google.common.testing.TearDownStack;
 import org.testng.IHookCallBack;
 import org.testng.IHookable;
 import org.testng.ITestResult;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterSuite;
 
 /**
  * A base class for test cases that want to register tear down operations
@@ -120,21 +126,127 @@ import org.testng.ITestResult;
  *      });
  *   }
  * }
+ *
+ * <p>{@link AsyncTearDown}s registered this way run in the background, and are
+ * waited for once all tests of the class have run.
+ *
+ * <p>Fixtures shared by all tests of a class or suite can be registered with
+ * {@link #addClassTearDown} or {@link #addSuiteTearDown} respectively; see
+ * also {@link JvmTearDownAccepter}.
  * 
  * @author Kartik Kumar
  */
 public abstract class TearDownTestCase implements TearDownAccepter, IHookable {
 
-  final TearDownStack tearDownStack = new TearDownStack();
+  final TearDownStack tearDownStack;
+
+  final AsyncTearDownRunner asyncTearDownRunner = new AsyncTearDownRunner();
+
+  final TearDownStack classTearDownStack = TearDownStack.newConcurrentInstance();
+
+  static final TearDownStack suiteTearDownStack =
+      TearDownStack.newConcurrentInstance();
+
+  /** {@code null} if leaks are not checked for. */
+  private final ResourceLeakDetector leakDetector;
+
+  protected TearDownTestCase() {
+    this(new TearDownStack());
+  }
+
+  /**
+   * Creates a test case that registers with {@code tearDownStack}, e.g. a
+   * {@link TearDownStack#newConcurrentInstance concurrent} one.
+   */
+  protected TearDownTestCase(TearDownStack tearDownStack) {
+    this(tearDownStack, null);
+  }
+
+  /**
+   * Creates a test case that registers with {@code tearDownStack}, and that
+   * uses {@code leakDetector} to fail tests that leave resources behind once
+   * their {@link TearDown}s have run.
+   */
+  protected TearDownTestCase(
+      TearDownStack tearDownStack, ResourceLeakDetector leakDetector) {
+    this.tearDownStack = tearDownStack;
+    this.leakDetector = leakDetector;
+    this.tearDownStack.setAsyncTearDownRunner(asyncTearDownRunner);
+    // Registered first, so that it runs after the class TearDowns
+    this.classTearDownStack.addTearDown(new TearDown() {
+      public void tearDown() {
+        asyncTearDownRunner.awaitCompletion();
+      }
+    });
+  }
 
   @Override
  	public void addTearDown(TearDown tearDown) {
 		this. tearDownStack.addTearDown(tearDown);
 	}
 
+  /**
+   * Registers a TearDown implementor which will be run after all tests of this
+   * class.
+   */
+  public void addClassTearDown(TearDown tearDown) {
+    classTearDownStack.addTearDown(tearDown);
+  }
+
+  /**
+   * Registers a TearDown implementor which will be run after all tests of the
+   * suite.
+   */
+  public void addSuiteTearDown(TearDown tearDown) {
+    suiteTearDownStack.addTearDown(tearDown);
+  }
+
+  /**
+   * Returns an accepter for {@link TearDown}s to run after all tests of this
+   * class, for test infrastructure that takes a {@link TearDownAccepter}.
+   */
+  public TearDownAccepter getClassTearDownAccepter() {
+    return classTearDownStack;
+  }
+
+  /**
+   * Returns an accepter for {@link TearDown}s to run after all tests of the
+   * suite, for test infrastructure that takes a {@link TearDownAccepter}.
+   */
+  public TearDownAccepter getSuiteTearDownAccepter() {
+    return suiteTearDownStack;
+  }
+
   @Override
   public void run(IHookCallBack iHookCallBack, ITestResult iTestResult) {
-    iHookCallBack.runTestMethod(iTestResult);
-    this.tearDownStack.runTearDown();
+    ResourceLeakDetector.Snapshot before =
+        (leakDetector == null) ? null : leakDetector.snapshot();
+    try {
+      iHookCallBack.runTestMethod(iTestResult);
+    } finally {
+      this.tearDownStack.runTearDown();
+    }
+    if (before != null) {
+      leakDetector.checkForLeaks(before);
+    }
+  }
+
+  /**
+   * Runs the class {@link TearDown}s, and waits for the {@link AsyncTearDown}s
+   * of all tests of this class.
+   */
+  @AfterClass(alwaysRun = true)
+  public void runClassTearDown() {
+    classTearDownStack.runTearDown();
+  }
+
+  /**
+   * Runs the suite {@link TearDown}s. Since every subclass inherits this hook,
+   * it may be invoked more than once; only the first invocation has anything
+   * left to run.
+   */
+  @AfterSuite(alwaysRun = true)
+  public void runSuiteTearDown() {
+    suiteTearDownStack.runTearDown();
   }
 }
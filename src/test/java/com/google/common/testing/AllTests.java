@@ -17,7 +17,9 @@
 package com.google.common.testing;
 
 import com.google.common.testing.junit4.JUnitAssertsTest;
+import com.google.common.testing.junit4.TearDownClassRuleTest;
 import com.google.common.testing.junit4.TearDownTestCaseTest;
+import com.google.common.testing.junit4.TestLogRuleTest;
 import com.google.common.testing.testng.TestNGAssertsTest;
 
 import org.junit.runner.RunWith;
@@ -26,7 +28,13 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses(
     {JUnitAssertsTest.class, TearDownTestCaseTest.class,
-     TearDownStackTest.class, TestLogHandlerTest.class,
+     TearDownClassRuleTest.class, TestLogRuleTest.class,
+     ClusterExceptionTest.class,
+     FixturePoolTest.class,
+     PartitionedLogHandlerTest.class, ResourceLeakDetectorTest.class,
+     SuppressedExceptionLogTest.class,
+     TearDownStackTest.class, TearDownStatisticsTest.class,
+     TestLogHandlerTest.class,
         com.google.common.testing.testng.TearDownTestCase.class,
         TestNGAssertsTest.class})
 public class AllTests {}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the failure path of {@link TearDownStack}, with and without
+ * {@linkplain TearDownStack#setLightweightFailures lightweight failures}. Not a
+ * test; run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes \
+ *     com.google.common.testing.ClusterExceptionBenchmark [failures [rounds]]
+ * </pre>
+ *
+ * <p>Each round tears down a stack of {@code failures} failing
+ * {@link TearDown}s, and prints the average time per round once the first
+ * half of the rounds has warmed the JIT up.
+ */
+public final class ClusterExceptionBenchmark {
+
+  private ClusterExceptionBenchmark() {}
+
+  public static void main(String[] args) {
+    int failures = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+    int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+    for (boolean lightweight : new boolean[] {false, true}) {
+      long nanos = time(failures, rounds, lightweight);
+      System.out.printf("%-12s %d failures: %,d us per round%n",
+          lightweight ? "lightweight" : "default", failures,
+          TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+  }
+
+  /**
+   * Returns the average nanoseconds per round over the second half of the
+   * rounds.
+   */
+  private static long time(int failures, int rounds, boolean lightweight) {
+    final RuntimeException failure = new RuntimeException("expected");
+    TearDown failing = new TearDown() {
+      public void tearDown() {
+        throw failure;
+      }
+    };
+    long start = 0;
+    int sink = 0;
+    for (int round = 0; round < rounds; round++) {
+      if (round == rounds / 2) {
+        start = System.nanoTime();
+      }
+      TearDownStack stack = new TearDownStack();
+      stack.setLightweightFailures(lightweight);
+      for (int i = 0; i < failures; i++) {
+        stack.addTearDown(failing);
+      }
+      try {
+        stack.runTearDown();
+      } catch (RuntimeException e) {
+        // what a test framework would print
+        sink += e.getMessage().length();
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    if (sink == 0) {
+      throw new AssertionError();
+    }
+    return elapsed / (rounds - rounds / 2);
+  }
+}
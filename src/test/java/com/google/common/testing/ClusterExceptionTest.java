@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.testing;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit test for {@link ClusterException}.
+ */
+@RunWith(JUnit4.class)
+public class ClusterExceptionTest {
+
+  @Test
+  public void testCreateCopiesExceptions() throws Exception {
+    List<Throwable> exceptions = new ArrayList<Throwable>(Arrays.asList(
+        new RuntimeException("one"), new RuntimeException("two")));
+
+    ClusterException cluster =
+        (ClusterException) ClusterException.create(exceptions);
+    exceptions.clear();
+
+    Assert.assertEquals(2, cluster.exceptions.size());
+    Assert.assertTrue(cluster.getStackTrace().length > 0);
+  }
+
+  @Test
+  public void testLightweightSuppressesAllButCause() throws Exception {
+    RuntimeException one = new RuntimeException("one");
+    RuntimeException two = new RuntimeException("two");
+    RuntimeException three = new RuntimeException("three");
+
+    ClusterException cluster = (ClusterException)
+        ClusterException.createLightweight(Arrays.asList(one, two, three));
+
+    Assert.assertSame(one, cluster.getCause());
+    Assert.assertEquals(
+        Arrays.asList(two, three), Arrays.asList(cluster.getSuppressed()));
+    Assert.assertEquals(0, cluster.getStackTrace().length);
+    Assert.assertEquals(
+        "3 exceptions were thrown. The first exception is listed as a cause.",
+        cluster.getMessage());
+  }
+
+  @Test
+  public void testLightweightSingleException() throws Exception {
+    RuntimeException one = new RuntimeException("one");
+
+    Assert.assertSame(one,
+        ClusterException.createLightweight(Arrays.asList(one)));
+  }
+}
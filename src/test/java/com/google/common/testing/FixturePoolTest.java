@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.testing;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit test for {@link FixturePool}.
+ */
+@RunWith(JUnit4.class)
+public class FixturePoolTest {
+
+  private TearDownStack poolScope;
+  private CountingFactory factory;
+
+  @Before
+  public void setUp() {
+    poolScope = new TearDownStack();
+    factory = new CountingFactory();
+  }
+
+  @Test
+  public void testFixtureIsResetAndReused() throws Exception {
+    FixturePool<List<String>> pool =
+        new FixturePool<List<String>>(factory, 2, poolScope);
+
+    TearDownStack test = new TearDownStack();
+    List<String> first = pool.borrow(test);
+    first.add("dirty");
+    test.runTearDown();
+
+    List<String> second = pool.borrow(test);
+    Assert.assertSame(first, second);
+    Assert.assertTrue(second.isEmpty());
+    test.runTearDown();
+    Assert.assertEquals(1, factory.created);
+
+    poolScope.runTearDown();
+    Assert.assertEquals(1, factory.destroyed);
+  }
+
+  @Test
+  public void testOutstandingBorrowsGetDistinctFixtures() throws Exception {
+    FixturePool<List<String>> pool =
+        new FixturePool<List<String>>(factory, 2, poolScope);
+
+    TearDownStack test = new TearDownStack();
+    List<String> first = pool.borrow(test);
+    List<String> second = pool.borrow(test);
+    Assert.assertNotSame(first, second);
+    test.runTearDown();
+    Assert.assertEquals(2, factory.created);
+    poolScope.runTearDown();
+  }
+
+  @Test
+  public void testFailedResetDestroysFixture() throws Exception {
+    FixturePool<List<String>> pool =
+        new FixturePool<List<String>>(factory, 1, poolScope);
+
+    TearDownStack test = new TearDownStack();
+    List<String> first = pool.borrow(test);
+    first.add(CountingFactory.UNRESETTABLE);
+    try {
+      test.runTearDown();
+      Assert.fail();
+    } catch (IllegalStateException expected) {
+    }
+    Assert.assertEquals(1, factory.destroyed);
+
+    // the permit of the destroyed fixture was released
+    List<String> second = pool.borrow(test);
+    Assert.assertNotSame(first, second);
+    test.runTearDown();
+    poolScope.runTearDown();
+  }
+
+  @Test
+  public void testBorrowAfterPoolTornDown() throws Exception {
+    FixturePool<List<String>> pool =
+        new FixturePool<List<String>>(factory, 1, poolScope);
+    poolScope.runTearDown();
+    try {
+      pool.borrow(new TearDownStack());
+      Assert.fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test
+  public void testFixturesReturnedWhilePoolTornDownAreDestroyed()
+      throws Exception {
+    for (int round = 0; round < 100; round++) {
+      final TearDownStack scope = new TearDownStack();
+      final CountingFactory roundFactory = new CountingFactory();
+      FixturePool<List<String>> pool =
+          new FixturePool<List<String>>(roundFactory, 4, scope);
+      final CountDownLatch start = new CountDownLatch(1);
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int i = 0; i < 4; i++) {
+        final TearDownStack test = new TearDownStack();
+        pool.borrow(test);
+        threads.add(new Thread() {
+          @Override
+          public void run() {
+            awaitUninterruptibly(start);
+            test.runTearDown();
+          }
+        });
+      }
+      for (Thread thread : threads) {
+        thread.start();
+      }
+      start.countDown();
+      scope.runTearDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      Assert.assertEquals(4, roundFactory.created);
+      Assert.assertEquals(4, roundFactory.destroyed);
+    }
+  }
+
+  @Test
+  public void testBlockedBorrowFailsOncePoolTornDown() throws Exception {
+    final FixturePool<List<String>> pool =
+        new FixturePool<List<String>>(factory, 1, poolScope);
+    TearDownStack test = new TearDownStack();
+    pool.borrow(test);
+
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread blocked = new Thread() {
+      @Override
+      public void run() {
+        try {
+          pool.borrow(new TearDownStack());
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }
+    };
+    blocked.start();
+    while (blocked.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+    poolScope.runTearDown();
+    test.runTearDown();
+    blocked.join();
+
+    Assert.assertTrue(failure.get() instanceof IllegalStateException);
+    Assert.assertEquals(1, factory.created);
+    Assert.assertEquals(1, factory.destroyed);
+  }
+
+  @Test
+  public void testRejectedTearDownReturnsFixture() throws Exception {
+    FixturePool<List<String>> pool =
+        new FixturePool<List<String>>(factory, 1, poolScope);
+    final RuntimeException rejection = new RuntimeException();
+    try {
+      pool.borrow(new TearDownAccepter() {
+        public void addTearDown(TearDown tearDown) {
+          throw rejection;
+        }
+      });
+      Assert.fail();
+    } catch (RuntimeException expected) {
+      Assert.assertSame(rejection, expected);
+    }
+
+    // neither the permit nor the fixture leaked
+    TearDownStack test = new TearDownStack();
+    pool.borrow(test);
+    test.runTearDown();
+    Assert.assertEquals(1, factory.created);
+    poolScope.runTearDown();
+    Assert.assertEquals(1, factory.destroyed);
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    while (true) {
+      try {
+        latch.await();
+        return;
+      } catch (InterruptedException e) {
+        // keep waiting
+      }
+    }
+  }
+
+  private static class CountingFactory
+      implements FixturePool.Factory<List<String>> {
+
+    static final String UNRESETTABLE = "unresettable";
+
+    int created = 0;
+    int destroyed = 0;
+
+    public synchronized List<String> create() {
+      created++;
+      return new ArrayList<String>();
+    }
+
+    public void reset(List<String> fixture) {
+      if (fixture.contains(UNRESETTABLE)) {
+        throw new IllegalStateException();
+      }
+      fixture.clear();
+    }
+
+    public synchronized void destroy(List<String> fixture) {
+      destroyed++;
+    }
+  }
+}
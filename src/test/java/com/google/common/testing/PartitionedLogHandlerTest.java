@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing;
+
+import com.google.common.testing.junit4.TearDownTestCase;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Unit test for {@link PartitionedLogHandler}.
+ */
+@RunWith(JUnit4.class)
+public class PartitionedLogHandlerTest extends TearDownTestCase {
+
+  @Test
+  public void testRecordsAttributedToAttachingThread() throws Exception {
+    final PartitionedLogHandler partitioned = new PartitionedLogHandler();
+    TearDownStack stack = new TearDownStack();
+    TestLogHandler mine = new TestLogHandler();
+    partitioned.attach(mine, stack);
+
+    Thread other = new Thread() {
+      @Override
+      public void run() {
+        partitioned.publish(new LogRecord(Level.INFO, "other"));
+      }
+    };
+    other.start();
+    other.join();
+    partitioned.publish(new LogRecord(Level.INFO, "mine"));
+
+    Assert.assertEquals(1, mine.getStoredLogRecords().size());
+    Assert.assertEquals("mine", mine.getStoredLogRecords().get(0).getMessage());
+    Assert.assertEquals(1,
+        partitioned.getUnattributed().getStoredLogRecords().size());
+
+    stack.runTearDown();
+    Assert.assertNull(partitioned.getAttached());
+  }
+
+  @Test
+  public void testTearDownOnOtherThreadDetachesAttachingThread()
+      throws Exception {
+    final PartitionedLogHandler partitioned = new PartitionedLogHandler();
+    final TearDownStack stack = new TearDownStack();
+    partitioned.attach(new TestLogHandler(), stack);
+
+    Thread watchdog = new Thread() {
+      @Override
+      public void run() {
+        stack.runTearDown();
+      }
+    };
+    watchdog.start();
+    watchdog.join();
+
+    Assert.assertNull(partitioned.getAttached());
+    partitioned.publish(new LogRecord(Level.INFO, "next test"));
+    Assert.assertEquals(1,
+        partitioned.getUnattributed().getStoredLogRecords().size());
+  }
+
+  @Test
+  public void testRecordsPropagatedIntoExecutors() throws Exception {
+    final PartitionedLogHandler partitioned = new PartitionedLogHandler();
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    addTearDown(new TearDown() {
+      public void tearDown() {
+        executor.shutdownNow();
+      }
+    });
+    TestLogHandler mine = new TestLogHandler();
+    partitioned.attach(mine, this);
+
+    partitioned.propagate(executor).execute(new Runnable() {
+      public void run() {
+        partitioned.publish(new LogRecord(Level.INFO, "from task"));
+      }
+    });
+
+    Assert.assertTrue(mine.query().await(1, 10, TimeUnit.SECONDS));
+    Assert.assertTrue(
+        partitioned.getUnattributed().getStoredLogRecords().isEmpty());
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.testing;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for {@link ResourceLeakDetector}.
+ */
+@RunWith(JUnit4.class)
+public class ResourceLeakDetectorTest {
+
+  @Test
+  public void testLeakedThread() throws Exception {
+    ResourceLeakDetector detector =
+        new ResourceLeakDetector(ResourceLeakDetector.Resource.THREADS);
+    detector.setGracePeriod(50, TimeUnit.MILLISECONDS);
+    ResourceLeakDetector.Snapshot before = detector.snapshot();
+
+    final CountDownLatch release = new CountDownLatch(1);
+    Thread thread = new Thread("leaky") {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          // exit
+        }
+      }
+    };
+    thread.start();
+    try {
+      detector.checkForLeaks(before);
+      Assert.fail("checkForLeaks should have thrown an exception");
+    } catch (ResourceLeakException expected) {
+      Assert.assertEquals(1, expected.getLeaks().size());
+      Assert.assertTrue(expected.getLeaks().get(0).startsWith("thread \"leaky\""));
+    }
+
+    release.countDown();
+    thread.join();
+    detector.checkForLeaks(before);
+  }
+
+  @Test
+  public void testLeakedFileDescriptor() throws Exception {
+    Assume.assumeTrue(new File("/proc/self/fd").isDirectory());
+    ResourceLeakDetector detector = new ResourceLeakDetector(
+        ResourceLeakDetector.Resource.FILE_DESCRIPTORS);
+    detector.setGracePeriod(0, TimeUnit.MILLISECONDS);
+    File file = File.createTempFile("leak", ".txt");
+    file.deleteOnExit();
+    ResourceLeakDetector.Snapshot before = detector.snapshot();
+
+    FileInputStream in = new FileInputStream(file);
+    try {
+      detector.checkForLeaks(before);
+      Assert.fail("checkForLeaks should have thrown an exception");
+    } catch (ResourceLeakException expected) {
+      Assert.assertTrue(expected.getMessage().contains(file.getName()));
+    } finally {
+      in.close();
+    }
+
+    detector.checkForLeaks(before);
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.testing;
+
+import com.google.common.testing.junit4.TearDownTestCase;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Unit test for {@link SuppressedExceptionLog}.
+ */
+@RunWith(JUnit4.class)
+public class SuppressedExceptionLogTest extends TearDownTestCase {
+
+  private final Logger logger =
+      Logger.getLogger(SuppressedExceptionLogTest.class.getName());
+
+  private TestLogHandler handler;
+
+  @Before
+  public void setUp() throws Exception {
+    handler = new TestLogHandler();
+    logger.addHandler(handler);
+    logger.setUseParentHandlers(false);
+    addTearDown(new TearDown() {
+      public void tearDown() throws Exception {
+        logger.setUseParentHandlers(true);
+        logger.removeHandler(handler);
+      }
+    });
+  }
+
+  @Test
+  public void testLogsEveryExceptionByDefault() throws Exception {
+    SuppressedExceptionLog log = new SuppressedExceptionLog(logger);
+
+    for (int i = 0; i < 3; i++) {
+      log.report(new RuntimeException("refused"));
+    }
+
+    Assert.assertEquals(3, handler.getStoredLogRecords().size());
+  }
+
+  @Test
+  public void testSummarizesRepeatedExceptions() throws Exception {
+    SuppressedExceptionLog log = new SuppressedExceptionLog(logger);
+    log.setSummaryInterval(1, TimeUnit.HOURS);
+
+    for (int i = 0; i < 5; i++) {
+      log.report(new RuntimeException("refused"));
+    }
+    log.report(new IllegalStateException("other"));
+
+    List<LogRecord> records = handler.getStoredLogRecords();
+    Assert.assertEquals(2, records.size());
+    Assert.assertNotNull(records.get(0).getThrown());
+
+    log.flush();
+
+    records = handler.getStoredLogRecords();
+    Assert.assertEquals(3, records.size());
+    String summary = records.get(2).getMessage();
+    Assert.assertTrue(summary, summary.startsWith("4 more exceptions"));
+    Assert.assertTrue(summary,
+        summary.contains("4 x java.lang.RuntimeException: refused"));
+
+    log.flush();
+
+    Assert.assertEquals(3, handler.getStoredLogRecords().size());
+  }
+}
@@ -21,6 +21,17 @@ import com.google.common.testing.junit4.TearDownTestCase;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * @author Luiz-Otavio "Z" Zorzella
  */
@@ -94,6 +105,532 @@ public class TearDownStackTest extends TearDownTestCase {
     Assert.assertEquals(true, tearDownTwo.ran);
   }
 
+  @Test
+  public void testFailuresReportedAsClusterByDefault() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    stack.addTearDown(new ThrowingTearDown("one"));
+    stack.addTearDown(new ThrowingTearDown("two"));
+
+    try {
+      stack.runTearDown();
+      Assert.fail("runTearDown should have thrown an exception");
+    } catch (ClusterException expected) {
+      Assert.assertTrue(expected.getStackTrace().length > 0);
+      Assert.assertEquals(0, expected.getSuppressed().length);
+    }
+  }
+
+  @Test
+  public void testLightweightFailures() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    stack.setLightweightFailures(true);
+    stack.addTearDown(new ThrowingTearDown("one"));
+    stack.addTearDown(new ThrowingTearDown("two"));
+
+    try {
+      stack.runTearDown();
+      Assert.fail("runTearDown should have thrown an exception");
+    } catch (ClusterException expected) {
+      Assert.assertEquals(0, expected.getStackTrace().length);
+      Assert.assertEquals("two", expected.getCause().getMessage());
+      Assert.assertEquals("one", expected.getSuppressed()[0].getMessage());
+    }
+  }
+
+  @Test
+  public void testParallelTearDownRespectsDependencies() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    final List<String> messages =
+        Collections.synchronizedList(new ArrayList<String>());
+
+    RecordingTearDown server = new RecordingTearDown("server", messages);
+    stack.addTearDown(server);
+    RecordingTearDown client = new RecordingTearDown("client", messages);
+    stack.addDependentTearDown(client, server);
+    stack.addTearDown(new RecordingTearDown("tempDir", messages));
+
+    stack.runTearDown(buildExecutor());
+
+    Assert.assertEquals(3, messages.size());
+    Assert.assertTrue("client should have been torn down before server",
+        messages.indexOf("client") < messages.indexOf("server"));
+  }
+
+  @Test
+  public void testParallelThrowingTearDown() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+
+    final ThrowingTearDown tearDownOne = new ThrowingTearDown("one");
+    stack.addTearDown(tearDownOne);
+    final ThrowingTearDown tearDownTwo = new ThrowingTearDown("two");
+    stack.addDependentTearDown(tearDownTwo, tearDownOne);
+
+    try {
+      stack.runTearDown(buildExecutor());
+      Assert.fail("runTearDown should have thrown an exception");
+    } catch (ClusterException expected) {
+      Assert.assertEquals("two", expected.getCause().getMessage());
+      Assert.assertEquals(2, expected.exceptions.size());
+    }
+
+    Assert.assertEquals(true, tearDownOne.ran);
+    Assert.assertEquals(true, tearDownTwo.ran);
+  }
+
+  @Test
+  public void testParallelTearDownSurvivesBrokenExecutor() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    final List<String> messages =
+        Collections.synchronizedList(new ArrayList<String>());
+    RecordingTearDown server = new RecordingTearDown("server", messages);
+    stack.addTearDown(server);
+    stack.addDependentTearDown(
+        new RecordingTearDown("client", messages), server);
+
+    final ExecutorService delegate = buildExecutor();
+    final AtomicInteger submitted = new AtomicInteger();
+    stack.runTearDown(new Executor() {
+      public void execute(Runnable task) {
+        if (submitted.incrementAndGet() > 1) {
+          throw new IllegalStateException("broken");
+        }
+        delegate.execute(task);
+      }
+    });
+
+    Assert.assertEquals(Arrays.asList("client", "server"), messages);
+  }
+
+  @Test
+  public void testDependencyDrainedConcurrentlyIsIgnored() throws Exception {
+    final TearDownStack stack = TearDownStack.newConcurrentInstance();
+    Thread registering = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 0; i < 100000; i++) {
+          TearDown dependency = new SimpleTearDown();
+          stack.addTearDown(dependency);
+          try {
+            stack.addDependentTearDown(new SimpleTearDown(), dependency);
+          } catch (IllegalArgumentException drainedBeforeCheck) {
+          }
+        }
+      }
+    };
+    registering.start();
+    ExecutorService executor = buildExecutor();
+    try {
+      // a dependency drained by one round is ignored by the next
+      while (registering.isAlive()) {
+        stack.runTearDown(executor);
+      }
+    } finally {
+      registering.join();
+    }
+    stack.runTearDown(executor);
+  }
+
+  @Test
+  public void testDependencyMustBeRegistered() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    try {
+      stack.addDependentTearDown(new SimpleTearDown(), new SimpleTearDown());
+      Assert.fail("addDependentTearDown should have thrown an exception");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void testConcurrentRegistration() throws Exception {
+    final TearDownStack stack = TearDownStack.newConcurrentInstance();
+    final AtomicInteger count = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = buildExecutor();
+    final int tasks = 16;
+    final int perTask = 500;
+    final CountDownLatch registered = new CountDownLatch(tasks);
+    for (int i = 0; i < tasks; i++) {
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            start.await();
+            for (int j = 0; j < perTask; j++) {
+              stack.addTearDown(new TearDown() {
+                public void tearDown() {
+                  count.incrementAndGet();
+                }
+              });
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            registered.countDown();
+          }
+        }
+      });
+    }
+    start.countDown();
+    registered.await();
+
+    stack.runTearDown();
+
+    Assert.assertEquals(tasks * perTask, count.get());
+    Assert.assertEquals(0, stack.stack.size());
+  }
+
+  @Test
+  public void testTearDownRegisteringTearDown() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    final List<String> messages = new ArrayList<String>();
+
+    stack.addTearDown(new RecordingTearDown("first", messages));
+    stack.addTearDown(new TearDown() {
+      public void tearDown() throws Exception {
+        messages.add("registering");
+        stack.addTearDown(new RecordingTearDown("registered", messages));
+      }
+    });
+
+    stack.runTearDown();
+
+    Assert.assertEquals(
+        Arrays.asList("registering", "registered", "first"), messages);
+  }
+
+  @Test
+  public void testAsyncTearDownRejectedByExecutorRunsInline()
+      throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.shutdown();
+    AsyncTearDownRunner runner = new AsyncTearDownRunner(executor);
+    final TearDownStack stack = buildTearDownStack();
+    stack.setAsyncTearDownRunner(runner);
+    final AtomicInteger count = new AtomicInteger();
+    stack.addTearDown(new AsyncTearDown() {
+      public void tearDown() {
+        count.incrementAndGet();
+      }
+    });
+
+    stack.runTearDown();
+    Assert.assertEquals(1, count.get());
+    // returns, as nothing is left outstanding
+    runner.awaitCompletion();
+  }
+
+  @Test
+  public void testAsyncTearDownOverlapsWithCaller() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    AsyncTearDownRunner runner = new AsyncTearDownRunner(buildExecutor());
+    stack.setAsyncTearDownRunner(runner);
+
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger count = new AtomicInteger();
+    stack.addTearDown(new AsyncTearDown() {
+      public void tearDown() throws Exception {
+        release.await();
+        count.incrementAndGet();
+        throw new RuntimeException("async");
+      }
+    });
+
+    // returns although the AsyncTearDown is still blocked
+    stack.runTearDown();
+    Assert.assertEquals(0, count.get());
+
+    release.countDown();
+    try {
+      runner.awaitCompletion();
+      Assert.fail("awaitCompletion should have thrown an exception");
+    } catch (RuntimeException expected) {
+      Assert.assertEquals("async", expected.getMessage());
+    }
+    Assert.assertEquals(1, count.get());
+
+    // failures are only reported once
+    runner.awaitCompletion();
+  }
+
+  @Test
+  public void testHangingTearDownIsAbandoned() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    stack.setTearDownTimeout(50, TimeUnit.MILLISECONDS);
+
+    final SimpleTearDown tearDownOne = new SimpleTearDown();
+    stack.addTearDown(tearDownOne);
+    final CountDownLatch never = new CountDownLatch(1);
+    stack.addTearDown(new TearDown() {
+      public void tearDown() throws Exception {
+        never.await();
+      }
+    });
+    final ThrowingTearDown tearDownThree = new ThrowingTearDown("three");
+    stack.addTearDown(tearDownThree);
+
+    try {
+      stack.runTearDown();
+      Assert.fail("runTearDown should have thrown an exception");
+    } catch (ClusterException expected) {
+      Assert.assertEquals(2, expected.exceptions.size());
+      Assert.assertEquals("three", expected.getCause().getMessage());
+      TearDownTimeoutException timeout = (TearDownTimeoutException)
+          expected.exceptions.toArray()[1];
+      Assert.assertTrue(timeout.getThreadDump().contains("TearDownStack-watchdog"));
+    }
+
+    Assert.assertEquals(true, tearDownOne.ran);
+  }
+
+  @Test
+  public void testStackDeadlineSkipsRemainingTearDowns() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    stack.setStackTimeout(50, TimeUnit.MILLISECONDS);
+
+    final SimpleTearDown tearDownOne = new SimpleTearDown();
+    stack.addTearDown(tearDownOne);
+    final CountDownLatch never = new CountDownLatch(1);
+    stack.addTearDown(new TearDown() {
+      public void tearDown() throws Exception {
+        never.await();
+      }
+    });
+
+    try {
+      stack.runTearDown();
+      Assert.fail("runTearDown should have thrown an exception");
+    } catch (ClusterException expected) {
+      Assert.assertEquals(2, expected.exceptions.size());
+      for (Throwable t : expected.exceptions) {
+        Assert.assertTrue(t instanceof TearDownTimeoutException);
+      }
+    }
+
+    Assert.assertEquals(false, tearDownOne.ran);
+  }
+
+  @Test
+  public void testStackIsReusable() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    for (int run = 0; run < 3; run++) {
+      final SimpleTearDown tearDown = new SimpleTearDown();
+      stack.addTearDown(tearDown);
+      stack.runTearDown();
+      Assert.assertEquals(true, tearDown.ran);
+    }
+  }
+
+  @Test
+  public void testNullTearDownRejected() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    try {
+      stack.addTearDown(null);
+      Assert.fail("addTearDown should have thrown an exception");
+    } catch (NullPointerException expected) {
+    }
+  }
+
+  @Test
+  public void testPhasesOverrideRegistrationOrder() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    final List<String> messages = new ArrayList<String>();
+    TearDownPhase clients = new TearDownPhase("clients");
+    TearDownPhase servers = new TearDownPhase("servers", clients);
+    TearDownPhase files = new TearDownPhase("files", servers);
+
+    stack.addTearDown(new RecordingTearDown("client1", messages), clients);
+    stack.addTearDown(new RecordingTearDown("tempDir", messages), files);
+    stack.addTearDown(new RecordingTearDown("server1", messages), servers);
+    stack.addTearDown(new RecordingTearDown("client2", messages), clients);
+    stack.addTearDown(new RecordingTearDown("server2", messages), servers);
+    stack.addTearDown(new RecordingTearDown("unphased", messages));
+
+    stack.runTearDown();
+
+    Assert.assertEquals(Arrays.asList("unphased", "client2", "client1",
+        "server2", "server1", "tempDir"), messages);
+  }
+
+  @Test
+  public void testPhasesRegisteredDuringTearDownAreHonored() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    final List<String> messages = new ArrayList<String>();
+    final TearDownPhase clients = new TearDownPhase("clients");
+    final TearDownPhase servers = new TearDownPhase("servers", clients);
+
+    stack.addTearDown(new RecordingTearDown("first", messages));
+    stack.addTearDown(new TearDown() {
+      public void tearDown() {
+        stack.addTearDown(new RecordingTearDown("client", messages), clients);
+        stack.addTearDown(new RecordingTearDown("server", messages), servers);
+      }
+    });
+
+    stack.runTearDown();
+
+    Assert.assertEquals(3, messages.size());
+    Assert.assertTrue("client should have been torn down before server",
+        messages.indexOf("client") < messages.indexOf("server"));
+  }
+
+  @Test
+  public void testPhasesSkippedInRunStillOrder() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    final List<String> messages = new ArrayList<String>();
+    TearDownPhase clients = new TearDownPhase("clients");
+    TearDownPhase servers = new TearDownPhase("servers", clients);
+    TearDownPhase files = new TearDownPhase("files", servers);
+
+    // nothing registered in "servers"
+    stack.addTearDown(new RecordingTearDown("tempDir", messages), files);
+    stack.addTearDown(new RecordingTearDown("client", messages), clients);
+    stack.addTearDown(new RecordingTearDown("unrelated", messages),
+        new TearDownPhase("unrelated"));
+
+    stack.runTearDown();
+
+    Assert.assertEquals(
+        Arrays.asList("unrelated", "client", "tempDir"), messages);
+  }
+
+  @Test
+  public void testParallelPhases() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    final List<String> messages =
+        Collections.synchronizedList(new ArrayList<String>());
+    TearDownPhase clients = new TearDownPhase("clients");
+    TearDownPhase servers = new TearDownPhase("servers", clients);
+
+    for (int i = 0; i < 10; i++) {
+      stack.addTearDown(new RecordingTearDown("server", messages), servers);
+      stack.addTearDown(new RecordingTearDown("client", messages), clients);
+    }
+
+    stack.runTearDown(buildExecutor());
+
+    Assert.assertEquals(20, messages.size());
+    Assert.assertEquals(9, messages.lastIndexOf("client"));
+    Assert.assertEquals(10, messages.indexOf("server"));
+  }
+
+  @Test
+  public void testSafetyNetRunsTearDownsOfAbandonedStack() throws Exception {
+    final CountDownLatch ran = new CountDownLatch(1);
+    abandonStackWith(new TearDown() {
+      public void tearDown() throws Exception {
+        ran.countDown();
+      }
+    });
+
+    for (int i = 0; i < 100 && ran.getCount() > 0; i++) {
+      System.gc();
+      ran.await(100, TimeUnit.MILLISECONDS);
+    }
+
+    Assert.assertEquals(0, ran.getCount());
+  }
+
+  /**
+   * Registers {@code tearDown} with a stack that becomes unreachable as soon
+   * as this method returns.
+   */
+  private static void abandonStackWith(TearDown tearDown) {
+    TearDownStack stack = new TearDownStack();
+    stack.enableSafetyNet();
+    stack.addTearDown(tearDown);
+  }
+
+  @Test
+  public void testBatchRunsWhereEarliestMemberWould() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    final List<String> messages = new ArrayList<String>();
+    RecordingBatch batch = new RecordingBatch(messages);
+
+    stack.addTearDown(new BatchMember("a", batch, messages));
+    stack.addTearDown(new RecordingTearDown("unrelated", messages));
+    stack.addTearDown(new BatchMember("b", batch, messages));
+    stack.addTearDown(new BatchMember("alone", null, messages));
+
+    stack.runTearDown();
+
+    Assert.assertEquals(
+        Arrays.asList("alone", "unrelated", "batch [b, a]"), messages);
+  }
+
+  @Test
+  public void testBatchFailuresReportedIndividually() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    final List<String> messages = new ArrayList<String>();
+    RecordingBatch batch = new RecordingBatch(messages);
+    batch.failing = true;
+
+    stack.addTearDown(new BatchMember("a", batch, messages));
+    stack.addTearDown(new BatchMember("b", batch, messages));
+    stack.addTearDown(new ThrowingTearDown("other"));
+
+    try {
+      stack.runTearDown();
+      Assert.fail();
+    } catch (ClusterException expected) {
+      Assert.assertEquals(3, expected.exceptions.size());
+    }
+  }
+
+  @Test
+  public void testIdenticalFailuresReportedOnce() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    stack.setMaxDistinctFailures(10);
+
+    for (int i = 0; i < 400; i++) {
+      stack.addTearDown(new ThrowingTearDown("refused"));
+    }
+    stack.addTearDown(new TearDown() {
+      public void tearDown() {
+        throw new IllegalStateException("other");
+      }
+    });
+
+    try {
+      stack.runTearDown();
+      Assert.fail();
+    } catch (ClusterException expected) {
+      Assert.assertEquals(2, expected.exceptions.size());
+      Assert.assertTrue(expected.getMessage(), expected.getMessage().contains(
+          "400 x java.lang.RuntimeException: refused"));
+    }
+  }
+
+  @Test
+  public void testDistinctFailuresBeyondMaximumOnlyCounted() throws Exception {
+    final TearDownStack stack = buildTearDownStack();
+    stack.setMaxDistinctFailures(1);
+
+    stack.addTearDown(new ThrowingTearDown("kept"));
+    stack.addTearDown(new TearDown() {
+      public void tearDown() {
+        throw new IllegalStateException("dropped");
+      }
+    });
+
+    try {
+      stack.runTearDown();
+      Assert.fail();
+    } catch (ClusterException expected) {
+      Assert.assertEquals(1, expected.exceptions.size());
+      Assert.assertTrue(expected.getMessage(),
+          expected.getMessage().contains("1 more not retained"));
+    }
+  }
+
+  private ExecutorService buildExecutor() {
+    final ExecutorService result = Executors.newFixedThreadPool(4);
+    addTearDown(new TearDown() {
+      public void tearDown() throws Exception {
+        result.shutdownNow();
+      }
+    });
+    return result;
+  }
+
   /**
    * Builds a {@link TearDownStack} that makes sure it's clear by the end of
    * this test.
@@ -111,6 +648,54 @@ public class TearDownStackTest extends TearDownTestCase {
     return result;
   }
 
+  private static final class BatchMember
+      implements BatchableTearDown<BatchMember> {
+
+    private final String id;
+    private final TearDownBatch<BatchMember> batch;
+    private final List<String> messages;
+
+    BatchMember(String id, TearDownBatch<BatchMember> batch,
+        List<String> messages) {
+      this.id = id;
+      this.batch = batch;
+      this.messages = messages;
+    }
+
+    public TearDownBatch<BatchMember> getBatch() {
+      return batch;
+    }
+
+    public void tearDown() {
+      messages.add(id);
+    }
+
+    @Override
+    public String toString() {
+      return id;
+    }
+  }
+
+  private static final class RecordingBatch
+      implements TearDownBatch<BatchMember> {
+
+    private final List<String> messages;
+    boolean failing = false;
+
+    RecordingBatch(List<String> messages) {
+      this.messages = messages;
+    }
+
+    public void tearDown(List<BatchMember> members, List<Throwable> failures) {
+      messages.add("batch " + members);
+      if (failing) {
+        for (BatchMember member : members) {
+          failures.add(new RuntimeException(member.id));
+        }
+      }
+    }
+  }
+
   private static final class ThrowingTearDown implements TearDown {
 
     private final String id;
@@ -126,6 +711,21 @@ public class TearDownStackTest extends TearDownTestCase {
     }
   }
 
+  private static final class RecordingTearDown implements TearDown {
+
+    private final String id;
+    private final List<String> messages;
+
+    RecordingTearDown(String id, List<String> messages) {
+      this.id = id;
+      this.messages = messages;
+    }
+
+    public void tearDown() throws Exception {
+      messages.add(id);
+    }
+  }
+
   private static final class SimpleTearDown implements TearDown {
 
     boolean ran = false;
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.testing;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit test for {@link TearDownStatistics}.
+ */
+@RunWith(JUnit4.class)
+public class TearDownStatisticsTest {
+
+  @Test
+  public void testRecordsByCallSite() throws Exception {
+    TearDownStatistics statistics = new TearDownStatistics();
+    TearDownStack stack = new TearDownStack();
+    stack.setStatistics(statistics);
+
+    for (int i = 0; i < 3; i++) {
+      stack.addTearDown(new NoOpTearDown());
+    }
+    stack.addTearDown(new FailingTearDown());
+    try {
+      stack.runTearDown();
+      Assert.fail();
+    } catch (RuntimeException expected) {
+    }
+
+    StringBuilder csv = new StringBuilder();
+    statistics.writeCsv(csv);
+    String[] lines = csv.toString().split("\n");
+    Assert.assertEquals(3, lines.length);
+    Assert.assertEquals(
+        "class,method,line,tearDownClass,count,failures,timeouts,"
+            + "totalNanos,maxNanos",
+        lines[0]);
+    String noOp = lines[1].contains(NoOpTearDown.class.getName())
+        ? lines[1] : lines[2];
+    String failing = (noOp == lines[1]) ? lines[2] : lines[1];
+    String[] noOpColumns = noOp.split(",");
+    Assert.assertEquals(getClass().getName(), noOpColumns[0]);
+    Assert.assertEquals("testRecordsByCallSite", noOpColumns[1]);
+    Assert.assertEquals("3", noOpColumns[4]);
+    Assert.assertEquals("0", noOpColumns[5]);
+    Assert.assertEquals("1", failing.split(",")[5]);
+
+    StringBuilder json = new StringBuilder();
+    statistics.writeJson(json);
+    Assert.assertTrue(json.toString().contains(
+        "\"method\": \"testRecordsByCallSite\""));
+  }
+
+  @Test
+  public void testUnknownCallSite() throws Exception {
+    TearDownStatistics statistics = new TearDownStatistics();
+    TearDownStack stack = new TearDownStack();
+    stack.addTearDown(new NoOpTearDown());
+    stack.setStatistics(statistics);
+    stack.runTearDown();
+
+    StringBuilder json = new StringBuilder();
+    statistics.writeJson(json);
+    Assert.assertTrue(json.toString().contains("\"line\": null"));
+  }
+
+  private static final class NoOpTearDown implements TearDown {
+    public void tearDown() {}
+  }
+
+  private static final class FailingTearDown implements TearDown {
+    public void tearDown() {
+      throw new RuntimeException();
+    }
+  }
+}
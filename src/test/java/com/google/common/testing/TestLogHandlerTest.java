@@ -22,9 +22,14 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 /**
  * Unit test for {@link TestLogHandler}.
@@ -75,6 +80,412 @@ public class TestLogHandlerTest extends TearDownTestCase {
     }
   }
 
+  @Test
+  public void testRingBufferDropsOldest() throws Exception {
+    TestLogHandler ring = TestLogHandler.newRingBufferInstance(
+        3, TestLogHandler.OverflowPolicy.DROP_OLDEST);
+    for (int i = 0; i < 5; i++) {
+      ring.publish(new LogRecord(Level.INFO, "record " + i));
+    }
+
+    Assert.assertEquals(Arrays.asList("record 2", "record 3", "record 4"),
+        messages(ring.getStoredLogRecords()));
+    Assert.assertEquals(2, ring.getDroppedRecordCount());
+
+    ring.clear();
+    ring.publish(new LogRecord(Level.INFO, "record 5"));
+    Assert.assertEquals(Arrays.asList("record 5"),
+        messages(ring.getStoredLogRecords()));
+  }
+
+  @Test
+  public void testRingBufferDropsNewest() throws Exception {
+    TestLogHandler ring = TestLogHandler.newRingBufferInstance(
+        3, TestLogHandler.OverflowPolicy.DROP_NEWEST);
+    for (int i = 0; i < 5; i++) {
+      ring.publish(new LogRecord(Level.INFO, "record " + i));
+    }
+
+    Assert.assertEquals(Arrays.asList("record 0", "record 1", "record 2"),
+        messages(ring.getStoredLogRecords()));
+    Assert.assertEquals(2, ring.getDroppedRecordCount());
+  }
+
+  @Test
+  public void testRingBufferConcurrentPublish() throws Exception {
+    final TestLogHandler ring = TestLogHandler.newRingBufferInstance(
+        100, TestLogHandler.OverflowPolicy.DROP_OLDEST);
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 1000; j++) {
+            ring.publish(new LogRecord(Level.INFO, "message"));
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertEquals(100, ring.getStoredLogRecords().size());
+    Assert.assertEquals(7900, ring.getDroppedRecordCount());
+  }
+
+  @Test
+  public void testRingBufferCursorMissesNoConcurrentRecord() throws Exception {
+    final TestLogHandler ring = TestLogHandler.newRingBufferInstance(
+        40000, TestLogHandler.OverflowPolicy.DROP_NEWEST);
+    LogRecordCursor cursor = ring.newCursor();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            ring.publish(new LogRecord(Level.INFO, "message"));
+          }
+        }
+      };
+      threads[i].start();
+    }
+    int seen = 0;
+    for (Thread thread : threads) {
+      while (thread.isAlive()) {
+        seen += cursor.advance().size();
+      }
+    }
+    seen += cursor.advance().size();
+
+    Assert.assertEquals(40000, seen);
+    Assert.assertEquals(0, ring.getDroppedRecordCount());
+  }
+
+  @Test
+  public void testQuery() throws Exception {
+    checkQueries(new TestLogHandler());
+  }
+
+  @Test
+  public void testIndexedQuery() throws Exception {
+    checkQueries(TestLogHandler.newIndexedInstance());
+  }
+
+  private static void checkQueries(TestLogHandler handler) {
+    handler.publish(record(Level.FINE, "a", "starting"));
+    handler.publish(record(Level.WARNING, "a", "retrying after 10 ms"));
+    handler.publish(record(Level.SEVERE, "b", "gave up"));
+    handler.publish(record(Level.WARNING, "b", "retrying after 20 ms"));
+    handler.publish(record(Level.INFO, "a", "done"));
+
+    Assert.assertEquals(5, handler.query().count());
+    Assert.assertEquals(3, handler.query().atLeast(Level.WARNING).count());
+    Assert.assertEquals(1,
+        handler.query().atLeast(Level.WARNING).fromLogger("a").count());
+    Assert.assertEquals(0, handler.query().fromLogger("c").count());
+    Assert.assertEquals(Arrays.asList("gave up", "retrying after 20 ms"),
+        messages(handler.query().atLeast(Level.WARNING).fromLogger("b").list()));
+    Assert.assertEquals(Arrays.asList("retrying after 10 ms", "gave up",
+        "retrying after 20 ms"),
+        messages(handler.query().atLeast(Level.WARNING).list()));
+    Assert.assertEquals("retrying after 20 ms", handler.query()
+        .matching(Pattern.compile("after \\d+")).fromLogger("b")
+        .first().getMessage());
+    Assert.assertNull(
+        handler.query().matching(Pattern.compile("nothing")).first());
+    Assert.assertEquals(Arrays.asList("retrying after 10 ms",
+        "retrying after 20 ms"), messages(handler.query()
+            .atLeast(Level.WARNING).matching(Pattern.compile("after")).list()));
+    Assert.assertEquals(Arrays.asList("starting", "retrying after 10 ms",
+        "done"), messages(handler.query().underLogger("a").list()));
+    Assert.assertEquals(5, handler.query()
+        .fromThread(handler.getStoredLogRecords().get(0).getThreadID())
+        .count());
+
+    handler.clear();
+    Assert.assertEquals(0, handler.query().atLeast(Level.ALL).count());
+  }
+
+  @Test
+  public void testAwaitWokenUpByPublish() throws Exception {
+    final TestLogHandler handler = new TestLogHandler();
+    handler.publish(record(Level.WARNING, "a", "first"));
+    Thread publisher = new Thread() {
+      @Override
+      public void run() {
+        handler.publish(record(Level.INFO, "a", "ignored"));
+        handler.publish(record(Level.WARNING, "a", "second"));
+      }
+    };
+    publisher.start();
+
+    Assert.assertTrue(handler.query().atLeast(Level.WARNING)
+        .await(2, 10, TimeUnit.SECONDS));
+    publisher.join();
+  }
+
+  @Test
+  public void testAwaitOnStreamingHandler() throws Exception {
+    checkAwaitCountsPublished(TestLogHandler.newStreamingInstance());
+  }
+
+  @Test
+  public void testAwaitOnEvictingRingBuffer() throws Exception {
+    checkAwaitCountsPublished(TestLogHandler.newRingBufferInstance(
+        2, TestLogHandler.OverflowPolicy.DROP_OLDEST));
+  }
+
+  @Test
+  public void testAwaitOnCountingHandlerByMessage() throws Exception {
+    checkAwaitCountsPublished(TestLogHandler.newCountingInstance());
+  }
+
+  /**
+   * Checks that a record is awaited even if {@code handler} never keeps it,
+   * or drops it right away.
+   */
+  private static void checkAwaitCountsPublished(final TestLogHandler handler)
+      throws Exception {
+    Thread publisher = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          return;
+        }
+        handler.publish(record(Level.WARNING, "a", "expected"));
+        handler.publish(record(Level.INFO, "a", "evicting"));
+        handler.publish(record(Level.INFO, "a", "evicting"));
+      }
+    };
+    publisher.start();
+
+    Assert.assertTrue(handler.query().atLeast(Level.WARNING)
+        .matching(Pattern.compile("expected"))
+        .await(1, 10, TimeUnit.SECONDS));
+    publisher.join();
+  }
+
+  @Test
+  public void testAwaitTimesOut() throws Exception {
+    TestLogHandler handler = new TestLogHandler();
+    handler.publish(record(Level.WARNING, "a", "only"));
+
+    Assert.assertFalse(handler.query().atLeast(Level.WARNING)
+        .await(2, 10, TimeUnit.MILLISECONDS));
+    Assert.assertTrue(handler.query().atLeast(Level.WARNING)
+        .await(1, 0, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testSnapshotUnaffectedByLaterRecords() throws Exception {
+    TestLogHandler handler = new TestLogHandler();
+    for (int i = 0; i < 3000; i++) {
+      handler.publish(record(Level.INFO, "a", "record " + i));
+    }
+    List<LogRecord> snapshot = handler.getStoredLogRecords();
+
+    handler.publish(record(Level.INFO, "a", "later"));
+    handler.clear();
+
+    Assert.assertEquals(3000, snapshot.size());
+    Assert.assertEquals("record 2999", snapshot.get(2999).getMessage());
+  }
+
+  @Test
+  public void testCursor() throws Exception {
+    checkCursor(new TestLogHandler());
+    checkCursor(TestLogHandler.newIndexedInstance());
+    checkCursor(TestLogHandler.newRingBufferInstance(
+        10, TestLogHandler.OverflowPolicy.DROP_OLDEST));
+  }
+
+  private static void checkCursor(TestLogHandler handler) {
+    handler.publish(record(Level.INFO, "a", "before"));
+    LogRecordCursor cursor = handler.newCursor();
+    Assert.assertTrue(cursor.advance().isEmpty());
+
+    handler.publish(record(Level.INFO, "a", "one"));
+    handler.publish(record(Level.INFO, "a", "two"));
+    Assert.assertEquals(
+        Arrays.asList("one", "two"), messages(cursor.advance()));
+
+    handler.publish(record(Level.INFO, "a", "three"));
+    Assert.assertEquals(Arrays.asList("three"), messages(cursor.advance()));
+
+    handler.clear();
+    handler.publish(record(Level.INFO, "a", "four"));
+    Assert.assertEquals(Arrays.asList("four"), messages(cursor.advance()));
+  }
+
+  @Test
+  public void testCompactRebuildsRecords() throws Exception {
+    TestLogHandler compact = TestLogHandler.newCompactInstance();
+    LogRecord original = record(Level.WARNING, "a", "retrying after {0} ms");
+    original.setParameters(new Object[] {10});
+    original.setThrown(new IllegalStateException("refused"));
+    original.setMillis(1234L);
+    compact.publish(original);
+    compact.publish(record(Level.INFO, "b", "done"));
+
+    List<LogRecord> records = compact.getStoredLogRecords();
+    Assert.assertEquals(2, records.size());
+    LogRecord rebuilt = records.get(0);
+    Assert.assertEquals(Level.WARNING, rebuilt.getLevel());
+    Assert.assertEquals("a", rebuilt.getLoggerName());
+    Assert.assertEquals("retrying after 10 ms", rebuilt.getMessage());
+    Assert.assertEquals(1234L, rebuilt.getMillis());
+    Assert.assertEquals(IllegalStateException.class,
+        ((TestLogHandler.ThrownSummary) rebuilt.getThrown()).getThrownClass());
+    Assert.assertNull(records.get(1).getThrown());
+    Assert.assertSame(rebuilt, records.get(0));
+    Assert.assertEquals(1, compact.query().fromLogger("b").count());
+    Assert.assertEquals(1, compact.query()
+        .matching(Pattern.compile("after 10 ms")).count());
+    Assert.assertEquals("done",
+        compact.query().atLeast(Level.INFO).fromLogger("b").first()
+            .getMessage());
+    checkCursor(TestLogHandler.newCompactInstance());
+  }
+
+  @Test
+  public void testExpectAtMostFailsOnPublish() throws Exception {
+    final TestLogHandler streaming = TestLogHandler.newStreamingInstance();
+    streaming.expectAtMost(0,
+        streaming.query().atLeast(Level.SEVERE).underLogger("com.example"));
+    streaming.expectAtMost(1, streaming.query().atLeast(Level.WARNING));
+
+    streaming.publish(record(Level.SEVERE, "com.examples", "unrelated"));
+    AssertionError onPublish = failure(new Runnable() {
+      public void run() {
+        streaming.publish(record(Level.SEVERE, "com.example.db", "down"));
+      }
+    });
+
+    Assert.assertTrue(onPublish.getMessage(),
+        onPublish.getMessage().contains("down"));
+    Assert.assertTrue(streaming.getStoredLogRecords().isEmpty());
+    Assert.assertSame(onPublish, verificationFailure(streaming));
+  }
+
+  @Test
+  public void testExpectAtLeast() throws Exception {
+    TestLogHandler handler = new TestLogHandler();
+    handler.publish(record(Level.INFO, "a", "connected"));
+    handler.expectAtLeast(1,
+        handler.query().matching(Pattern.compile("connected")));
+
+    verificationFailure(handler);
+
+    handler.publish(record(Level.INFO, "a", "connected again"));
+    handler.verifyExpectations();
+
+    handler.clearExpectations();
+    handler.expectAtLeast(1, handler.query().atLeast(Level.SEVERE));
+    verificationFailure(handler);
+  }
+
+  @Test
+  public void testCaptureFilters() throws Exception {
+    TestLogHandler handler = new TestLogHandler();
+    handler.setCaptureLevel(Level.INFO);
+    handler.setCapturedLoggers("com.example", "org.other.Thing");
+
+    handler.publish(record(Level.FINE, "com.example", "too fine"));
+    handler.publish(record(Level.INFO, "com.example", "kept"));
+    handler.publish(record(Level.INFO, "com.example.db", "kept too"));
+    handler.publish(record(Level.INFO, "com.examples", "other package"));
+    handler.publish(record(Level.INFO, "com", "ancestor"));
+    handler.publish(record(Level.INFO, "org.other.Thing", "kept as well"));
+    handler.publish(record(Level.INFO, null, "anonymous"));
+
+    Assert.assertEquals(Arrays.asList("kept", "kept too", "kept as well"),
+        messages(handler.getStoredLogRecords()));
+
+    handler.clear();
+    handler.setCapturedLoggers();
+    handler.setSamplingRate(0.0);
+    handler.publish(record(Level.INFO, "com.example", "not sampled"));
+    Assert.assertTrue(handler.getStoredLogRecords().isEmpty());
+
+    handler.setSamplingRate(1.0);
+    handler.setCaptureLevel(Level.ALL);
+    handler.publish(record(Level.FINEST, "anything", "sampled"));
+    Assert.assertEquals(1, handler.getStoredLogRecords().size());
+  }
+
+  @Test
+  public void testCounting() throws Exception {
+    final TestLogHandler counting = TestLogHandler.newCountingInstance();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 1000; j++) {
+            counting.publish(record(Level.WARNING, "com.example.db", "slow"));
+            counting.publish(record(Level.FINE, "com.example", "chatter"));
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    counting.publish(record(Level.SEVERE, null, "anonymous"));
+
+    Assert.assertTrue(counting.getStoredLogRecords().isEmpty());
+    Assert.assertNull(counting.query().first());
+    Assert.assertTrue(counting.query().list().isEmpty());
+    Assert.assertEquals(4000, counting.getCount("com.example.db", Level.WARNING));
+    Assert.assertEquals(0, counting.getCount("com.example.db", Level.SEVERE));
+    Assert.assertEquals(1, counting.getCount(null, Level.SEVERE));
+    Assert.assertEquals(4001, counting.query().atLeast(Level.WARNING).count());
+    Assert.assertEquals(8000,
+        counting.query().underLogger("com.example").count());
+
+    counting.clear();
+    Assert.assertEquals(0, counting.query().count());
+  }
+
+  private static AssertionError verificationFailure(
+      final TestLogHandler handler) {
+    return failure(new Runnable() {
+      public void run() {
+        handler.verifyExpectations();
+      }
+    });
+  }
+
+  private static AssertionError failure(Runnable runnable) {
+    try {
+      runnable.run();
+    } catch (AssertionError expected) {
+      return expected;
+    }
+    throw new IllegalStateException("An AssertionError should have been thrown");
+  }
+
+  private static LogRecord record(Level level, String loggerName,
+      String message) {
+    LogRecord result = new LogRecord(level, message);
+    result.setLoggerName(loggerName);
+    return result;
+  }
+
+  private static List<String> messages(List<LogRecord> records) {
+    List<String> result = new ArrayList<String>();
+    for (LogRecord record : records) {
+      result.add(record.getMessage());
+    }
+    return result;
+  }
+
   static final Exception EXCEPTION = new Exception();
 
   static class ExampleClassUnderTest {
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.testing.junit4;
+
+import com.google.common.testing.TearDown;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.runners.model.Statement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit test for {@link TearDownClassRule}.
+ */
+@RunWith(JUnit4.class)
+public class TearDownClassRuleTest {
+
+  @Test
+  public void testTearDownsRunAfterClass() throws Throwable {
+    final List<String> messages = new ArrayList<String>();
+    final TearDownClassRule rule = new TearDownClassRule();
+
+    Statement classStatement = new Statement() {
+      @Override
+      public void evaluate() {
+        rule.addTearDown(new Tidy("first", messages));
+        rule.addTearDown(new Tidy("second", messages));
+        messages.add("tests");
+      }
+    };
+    rule.apply(classStatement, Description.EMPTY).evaluate();
+
+    JUnitAsserts.assertContentsInOrder(messages, "tests", "second", "first");
+  }
+
+  @Test
+  public void testTearDownsRunWhenClassFails() throws Throwable {
+    final List<String> messages = new ArrayList<String>();
+    final TearDownClassRule rule = new TearDownClassRule();
+
+    Statement classStatement = new Statement() {
+      @Override
+      public void evaluate() {
+        rule.addTearDown(new Tidy("tidy", messages));
+        throw new IllegalStateException("expected");
+      }
+    };
+    try {
+      rule.apply(classStatement, Description.EMPTY).evaluate();
+      Assert.fail();
+    } catch (IllegalStateException expected) {
+    }
+
+    JUnitAsserts.assertContentsInOrder(messages, "tidy");
+  }
+
+  private static class Tidy implements TearDown {
+    final String desc;
+    final List<String> messages;
+
+    Tidy(String desc, List<String> messages) {
+      this.desc = desc;
+      this.messages = messages;
+    }
+
+    public void tearDown() {
+      messages.add(desc);
+    }
+  }
+}
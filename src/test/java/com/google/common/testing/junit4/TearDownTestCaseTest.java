@@ -26,7 +26,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.junit.runners.model.Statement;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -119,6 +121,53 @@ public class TearDownTestCaseTest {
     test.tearDownRule.stack.runTearDown();
   }
 
+  @Test
+  public void testTearDownRunsWhenTestFails() throws Throwable {
+    test.addTearDown(new TidyObject("tidy"));
+    test.addTearDown(new FailingTearDown());
+    final AssertionError failure = new AssertionError("test failed");
+    Statement statement = test.tearDownRule.apply(new Statement() {
+      @Override
+      public void evaluate() {
+        throw failure;
+      }
+    }, null, test);
+    try {
+      statement.evaluate();
+      Assert.fail();
+    } catch (AssertionError expected) {
+      Assert.assertSame(failure, expected);
+      Assert.assertEquals(1, expected.getSuppressed().length);
+    }
+    JUnitAsserts.assertContentsInOrder(messages, "whoops", "tidy");
+  }
+
+  @Test
+  public void testAbandonedTestIsNotPinned() throws Exception {
+    WeakReference<TearDownTestCase> reference = abandonTest();
+
+    for (int i = 0; i < 100 && reference.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+
+    Assert.assertNull(reference.get());
+  }
+
+  /**
+   * Registers a {@link TearDown} capturing a new test instance, which becomes
+   * unreachable without being torn down as soon as this method returns.
+   */
+  private static WeakReference<TearDownTestCase> abandonTest() {
+    final TearDownTestCase abandoned = new TearDownTestCase() {};
+    abandoned.addTearDown(new TearDown() {
+      public void tearDown() {
+        abandoned.toString();
+      }
+    });
+    return new WeakReference<TearDownTestCase>(abandoned);
+  }
+
   /** This is deeply ironic. */
   @After
   public void tearDown() throws Exception {
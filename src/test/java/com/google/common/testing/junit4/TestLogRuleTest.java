@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing.junit4;
+
+import com.google.common.testing.LogCapture;
+import com.google.common.testing.TestLogHandler;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.runners.model.Statement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Unit test for {@link TestLogRule}.
+ */
+@RunWith(JUnit4.class)
+public class TestLogRuleTest {
+
+  private static final Logger logger =
+      Logger.getLogger(TestLogRuleTest.class.getName());
+
+  @Test
+  public void testInstallsAndRestores() throws Throwable {
+    final TestLogHandler handler = new TestLogHandler();
+    final TestLogRule rule = new TestLogRule(new LogCapture(handler)
+        .capture(logger.getName(), Level.FINE));
+    Level original = logger.getLevel();
+
+    for (int i = 0; i < 2; i++) {
+      rule.apply(new Statement() {
+        @Override
+        public void evaluate() {
+          Assert.assertEquals(Level.FINE, logger.getLevel());
+          logger.fine("captured");
+          Assert.assertEquals(1, handler.getStoredLogRecords().size());
+        }
+      }, Description.EMPTY).evaluate();
+
+      Assert.assertEquals(original, logger.getLevel());
+      Assert.assertFalse(Arrays.asList(logger.getHandlers()).contains(handler));
+      Assert.assertTrue(handler.getStoredLogRecords().isEmpty());
+    }
+  }
+
+  @Test
+  public void testParallelTestsSharingCaptureTakeTurns() throws Throwable {
+    final TestLogHandler handler = new TestLogHandler();
+    final LogCapture shared =
+        new LogCapture(handler).capture(logger.getName(), Level.FINE);
+    final List<Throwable> failures =
+        Collections.synchronizedList(new ArrayList<Throwable>());
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      final Statement statement = new TestLogRule(shared).apply(
+          new Statement() {
+            @Override
+            public void evaluate() throws Exception {
+              logger.fine("mine");
+              Thread.sleep(10);
+              Assert.assertEquals(1, handler.getStoredLogRecords().size());
+            }
+          }, Description.EMPTY);
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            statement.evaluate();
+          } catch (Throwable t) {
+            failures.add(t);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertEquals(Collections.emptyList(), failures);
+  }
+
+  @Test
+  public void testFailsOnSwallowedViolation() throws Throwable {
+    final TestLogRule rule = new TestLogRule(new LogCapture(
+        new TestLogHandler()).capture(logger.getName(), Level.INFO));
+    Statement statement = rule.apply(new Statement() {
+      @Override
+      public void evaluate() {
+        TestLogHandler handler = rule.getHandler();
+        handler.expectAtMost(0, handler.query().atLeast(Level.SEVERE));
+        try {
+          logger.severe("swallowed");
+        } catch (AssertionError swallowed) {
+        }
+      }
+    }, Description.EMPTY);
+
+    try {
+      statement.evaluate();
+    } catch (AssertionError expected) {
+      Assert.assertTrue(expected.getMessage().contains("swallowed"));
+      return;
+    }
+    Assert.fail("The rule should have reported the violation");
+  }
+}
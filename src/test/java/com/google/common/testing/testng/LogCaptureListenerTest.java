@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.common.testing.testng;
+
+import com.google.common.testing.LogCapture;
+import com.google.common.testing.TestLogHandler;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Unit test for {@link LogCaptureListener}.
+ */
+@Listeners(LogCaptureListener.class)
+public class LogCaptureListenerTest implements LogCaptureListener.Capturing {
+
+  private static final Logger logger =
+      Logger.getLogger(LogCaptureListenerTest.class.getName());
+
+  private final LogCapture logs = new LogCapture(new TestLogHandler())
+      .capture(logger.getName(), Level.FINE);
+
+  @Override
+  public LogCapture getLogCapture() {
+    return logs;
+  }
+
+  @Test
+  public void testCaptures() {
+    Assert.assertEquals(logger.getLevel(), Level.FINE);
+    logger.fine("captured");
+    Assert.assertEquals(logs.getHandler().getStoredLogRecords().size(), 1);
+  }
+
+  @AfterMethod
+  public void checkRestored() {
+    Assert.assertNotEquals(logger.getLevel(), Level.FINE);
+    Assert.assertFalse(
+        Arrays.asList(logger.getHandlers()).contains(logs.getHandler()));
+    Assert.assertTrue(logs.getHandler().getStoredLogRecords().isEmpty());
+  }
+}
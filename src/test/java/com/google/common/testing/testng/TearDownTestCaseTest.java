@@ -1,15 +1,19 @@
 package com.google.common.testing.testng;
 
+import com.google.common.testing.AsyncTearDown;
 import com.google.common.testing.TearDown;
 import com.google.common.testing.TearDownStack;
 import com.google.common.testing.TestLogHandler;
 
 import org.testng.Assert;
+import org.testng.IHookCallBack;
+import org.testng.ITestResult;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -29,7 +33,7 @@ public class TearDownTestCaseTest {
   @BeforeMethod
   public void setUp() {
     tearDownTestCase = new TearDownTestCase(){};
-    messages = new ArrayList<String>();
+    messages = Collections.synchronizedList(new ArrayList<String>());
     handler = new TestLogHandler();
     TearDownStack.logger.addHandler(handler);
     TearDownStack.logger.setUseParentHandlers(false);
@@ -119,6 +123,62 @@ public class TearDownTestCaseTest {
     TestNGAsserts.assertEqualsOrder(messages, "always", "sometimes");
   }
 
+  @Test
+  public void testAsyncTearDownAwaitedAfterClass() throws Exception {
+    tearDownTestCase.addTearDown(new AsyncTearDown() {
+      public void tearDown() throws Exception {
+        messages.add("async");
+      }
+    });
+    tearDownTestCase.addTearDown(new TidyObject("sync"));
+    tearDownTestCase.tearDownStack.runTearDown();
+    tearDownTestCase.runClassTearDown();
+    Assert.assertEquals(messages.size(), 2);
+    Assert.assertTrue(messages.contains("async"));
+  }
+
+  @Test
+  public void testClassTearDownRunsAfterClass() throws Exception {
+    tearDownTestCase.addClassTearDown(new TidyObject("class"));
+    tearDownTestCase.getClassTearDownAccepter().addTearDown(
+        new TidyObject("accepter"));
+    tearDownTestCase.addTearDown(new TidyObject("method"));
+    tearDownTestCase.tearDownStack.runTearDown();
+    TestNGAsserts.assertEqualsOrder(messages, "method");
+    tearDownTestCase.runClassTearDown();
+    TestNGAsserts.assertEqualsOrder(messages, "method", "accepter", "class");
+  }
+
+  @Test
+  public void testSuiteTearDownRunsOnce() throws Exception {
+    tearDownTestCase.addSuiteTearDown(new TidyObject("suite"));
+    tearDownTestCase.runClassTearDown();
+    TestNGAsserts.assertEqualsOrder(messages);
+    tearDownTestCase.runSuiteTearDown();
+    tearDownTestCase.runSuiteTearDown();
+    TestNGAsserts.assertEqualsOrder(messages, "suite");
+  }
+
+  @Test
+  public void testTearDownRunsWhenTestMethodThrows() throws Exception {
+    tearDownTestCase.addTearDown(new TidyObject("tidy"));
+    try {
+      tearDownTestCase.run(new IHookCallBack() {
+        public void runTestMethod(ITestResult testResult) {
+          throw new IllegalStateException("misconfigured");
+        }
+
+        public Object[] getParameters() {
+          return new Object[0];
+        }
+      }, null);
+      Assert.fail();
+    } catch (IllegalStateException expected) {
+      Assert.assertEquals(expected.getMessage(), "misconfigured");
+    }
+    TestNGAsserts.assertEqualsOrder(messages, "tidy");
+  }
+
   @Test
   public void testEmptyEnvironment() throws Exception {
     tearDownTestCase.tearDownStack.runTearDown();